@@ -0,0 +1,25 @@
+package io.github.srushti1125.aggregator.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.stereotype.Controller;
+
+@Configuration
+public class StartupConfig {
+
+    // Used by the "fast-startup" profile (spring.main.lazy-initialization=true).
+    // Keeps the beans every request needs eager, so the first request after a restart
+    // doesn't pay for creating them. Everything else (mail, RSS/REST clients, ...) is
+    // created on first use. @Scheduled beans are already kept eager by Spring Boot.
+    @Bean
+    static LazyInitializationExcludeFilter requestPathBeans() {
+        return (beanName, beanDefinition, beanType) -> beanType != null
+                && (AnnotatedElementUtils.hasAnnotation(beanType, Controller.class)
+                || SecurityFilterChain.class.isAssignableFrom(beanType)
+                || UserDetailsService.class.isAssignableFrom(beanType));
+    }
+}
@@ -11,6 +11,9 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import java.security.Principal;
+import java.time.DateTimeException;
+import java.time.LocalTime;
+import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -66,6 +69,9 @@ public class WebController {
 
         // Pass the user's keywords to the HTML page
         model.addAttribute("keywords", String.join(", ", user.getKeywords()));
+        // Pass the digest schedule too (empty = server defaults)
+        model.addAttribute("digestTime", user.getDigestTime() != null ? user.getDigestTime().toString() : "");
+        model.addAttribute("timeZone", user.getTimeZone() != null ? user.getTimeZone() : "");
         return "dashboard"; // src/main/resources/templates/dashboard.html
     }
 
@@ -89,4 +95,28 @@ public class WebController {
 
         return "redirect:/dashboard"; // Reload the dashboard
     }
+
+    @PostMapping("/digest-schedule")
+    public String updateDigestSchedule(@RequestParam(required = false) String digestTime,
+                                       @RequestParam(required = false) String timeZone,
+                                       Principal principal) {
+        // Find the logged-in user
+        String email = principal.getName();
+        User user = userRepository.findAll().stream()
+                .filter(u -> u.getEmail().equals(email))
+                .findFirst()
+                .orElseThrow();
+
+        // Blank fields fall back to the server defaults; invalid values leave the old setting alone
+        try {
+            user.setDigestTime(digestTime == null || digestTime.isBlank() ? null : LocalTime.parse(digestTime.trim()));
+            user.setTimeZone(timeZone == null || timeZone.isBlank() ? null : ZoneId.of(timeZone.trim()).getId());
+            user.setNextDigestAt(null); // The digest worker recomputes the next slot
+            userRepository.save(user);
+        } catch (DateTimeException e) {
+            System.err.println("WARN: Invalid digest schedule from " + email + ": " + e.getMessage());
+        }
+
+        return "redirect:/dashboard"; // Reload the dashboard
+    }
 }
\ No newline at end of file
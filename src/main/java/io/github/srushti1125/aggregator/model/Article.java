@@ -3,6 +3,7 @@ package io.github.srushti1125.aggregator.model;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
+import java.time.Instant;
 import java.time.LocalDate; // Import LocalDate
 
 @Entity
@@ -27,4 +28,17 @@ public class Article {
     private String source;
 
     private boolean sentInDigest = false;
+
+    // Filled in by ArticleEnrichmentService from the article page (og:description, canonical link)
+    @Column(length = 1000)
+    private String summary;
+
+    @Column(length = 1000)
+    private String canonicalUrl;
+
+    private Instant enrichedAt; // null = page not fetched yet
+
+    // Page fetches that failed temporarily so far, and when the sweep may try again (null = any time)
+    private Integer enrichAttempts;
+    private Instant nextEnrichAttemptAt;
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package io.github.srushti1125.aggregator.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+@Entity
+@Getter
+@Setter
+@Table(name = "instance_lease")
+public class InstanceLease {
+
+    // One row per running application instance, keyed by its instance id
+    @Id
+    private String instanceId;
+
+    private Instant startedAt;
+
+    // Refreshed by every heartbeat; a lease older than the TTL means the instance is dead
+    private Instant heartbeatAt;
+}
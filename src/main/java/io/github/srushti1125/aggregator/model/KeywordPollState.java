@@ -0,0 +1,35 @@
+package io.github.srushti1125.aggregator.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+@Entity
+@Getter
+@Setter
+@Table(name = "keyword_poll_state", uniqueConstraints = @UniqueConstraint(columnNames = {"keyword", "source"}))
+public class KeywordPollState {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Lower-cased keyword and the source it is polled from (e.g. "Hacker News")
+    @Column(nullable = false)
+    private String keyword;
+
+    @Column(nullable = false)
+    private String source;
+
+    // Current polling interval, adapted to how many new articles the last polls stored
+    private long intervalMinutes;
+
+    private Instant nextPollAt;
+    private Instant lastPolledAt;
+
+    // New articles stored by the last poll, and in total
+    private int lastYield;
+    private long totalYield;
+}
@@ -0,0 +1,28 @@
+package io.github.srushti1125.aggregator.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+// One article that went out in one user's digest. Only needed above the user's watermark
+// (see User.lastDigestArticleId), and only while the article is in the 7-day window.
+@Entity
+@Getter
+@Setter
+@Table(name = "sent_article", indexes = @Index(name = "idx_sent_article_user_article", columnList = "user_id, article_id"))
+public class SentArticle {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "article_id", nullable = false)
+    private Long articleId;
+
+    private Instant sentAt;
+}
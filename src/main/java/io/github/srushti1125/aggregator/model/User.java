@@ -4,13 +4,17 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.HashSet;
 import java.util.Set;
 
 @Entity
 @Getter
 @Setter
-@Table(name = "app_user") // "user" is often a reserved keyword in SQL
+@Table(name = "app_user", // "user" is often a reserved keyword in SQL
+        indexes = @Index(name = "idx_app_user_next_digest_at", columnList = "next_digest_at"))
 public class User {
 
     @Id
@@ -26,4 +30,20 @@ public class User {
     // This stores a simple list of keywords for the user
     @ElementCollection(fetch = FetchType.EAGER)
     private Set<String> keywords = new HashSet<>();
+
+    // Preferred local delivery time and time zone for the digest (null = configured defaults)
+    private LocalTime digestTime;
+    private String timeZone;
+
+    // When this user's next digest slot comes due (null = not computed yet); the digest worker
+    // only loads users whose slot has arrived
+    @Column(name = "next_digest_at")
+    private Instant nextDigestAt;
+
+    // Local day of the last digest processed for this user; guards against two instances emailing the same user
+    private LocalDate lastDigestSentOn;
+
+    // Every article id up to this one has been dealt with for this user (null = never sent a digest);
+    // articles above it that the user already got are listed in sent_article
+    private Long lastDigestArticleId;
 }
\ No newline at end of file
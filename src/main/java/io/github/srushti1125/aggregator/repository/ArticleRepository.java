@@ -1,18 +1,58 @@
 package io.github.srushti1125.aggregator.repository;
 
 import io.github.srushti1125.aggregator.model.Article;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ArticleRepository extends JpaRepository<Article, Long> {
 
-    // Find unsent articles published on or after a specific date
-    // V V V CHANGE THIS LINE V V V
-    List<Article> findBySentInDigestFalseAndPublishedDateGreaterThanEqual(LocalDate startDate);
+    // Only the columns the in-memory digest window needs (no URLs or image URLs)
+    interface WindowRow {
+        Long getId();
+        String getTitle();
+        LocalDate getPublishedDate();
+        String getSource();
+        boolean isSentInDigest();
+    }
+
+    // Articles of the digest window newer than the given id, used to (re)load DigestWindowStore
+    List<WindowRow> findByIdGreaterThanAndPublishedDateGreaterThanEqualOrderByIdAsc(Long afterId, LocalDate startDate);
+
+    // Articles whose page hasn't been fetched yet and whose retry backoff is over, newest first (picked up by the enrichment sweep)
+    @Query("select a from Article a where a.enrichedAt is null and a.publishedDate >= :startDate "
+            + "and (a.nextEnrichAttemptAt is null or a.nextEnrichAttemptAt <= :now) order by a.id desc")
+    List<Article> findEnrichmentCandidates(@Param("startDate") LocalDate startDate, @Param("now") Instant now, Pageable pageable);
+
+    // Store what enrichment found; an image the source already gave us is kept
+    @Modifying
+    @Transactional
+    @Query("update Article a set a.imageUrl = coalesce(a.imageUrl, :imageUrl), a.summary = :summary, "
+            + "a.canonicalUrl = :canonicalUrl, a.enrichedAt = :enrichedAt where a.id = :id")
+    int updateEnrichment(@Param("id") Long id, @Param("imageUrl") String imageUrl, @Param("summary") String summary,
+                         @Param("canonicalUrl") String canonicalUrl, @Param("enrichedAt") Instant enrichedAt);
+
+    // A fetch failed temporarily: count it and hold the article back from the sweep until nextAttemptAt
+    @Modifying
+    @Transactional
+    @Query("update Article a set a.enrichAttempts = :attempts, a.nextEnrichAttemptAt = :nextAttemptAt where a.id = :id")
+    int updateEnrichmentRetry(@Param("id") Long id, @Param("attempts") int attempts, @Param("nextAttemptAt") Instant nextAttemptAt);
+
+    // Flag articles that went out in a digest, without touching the other columns
+    @Modifying
+    @Transactional
+    @Query("update Article a set a.sentInDigest = true where a.id in :ids")
+    int markSentInDigest(@Param("ids") Collection<Long> ids);
 
     // Keep this for checking duplicates
     boolean existsByUrl(String url);
@@ -0,0 +1,20 @@
+package io.github.srushti1125.aggregator.repository;
+
+import io.github.srushti1125.aggregator.model.InstanceLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface InstanceLeaseRepository extends JpaRepository<InstanceLease, String> {
+
+    // Instances that have sent a heartbeat since the cutoff are considered alive
+    List<InstanceLease> findByHeartbeatAtAfter(Instant cutoff);
+
+    // Clean up leases left behind by instances that died without deregistering
+    @Transactional
+    long deleteByHeartbeatAtBefore(Instant cutoff);
+}
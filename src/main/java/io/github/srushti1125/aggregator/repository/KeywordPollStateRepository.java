@@ -0,0 +1,9 @@
+package io.github.srushti1125.aggregator.repository;
+
+import io.github.srushti1125.aggregator.model.KeywordPollState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface KeywordPollStateRepository extends JpaRepository<KeywordPollState, Long> {
+}
@@ -0,0 +1,26 @@
+package io.github.srushti1125.aggregator.repository;
+
+import io.github.srushti1125.aggregator.model.SentArticle;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Set;
+
+@Repository
+public interface SentArticleRepository extends JpaRepository<SentArticle, Long> {
+
+    // Articles above the user's watermark that the user already got
+    @Query("select s.articleId from SentArticle s where s.userId = :userId and s.articleId > :afterId")
+    Set<Long> findArticleIdsSentToUserAfter(@Param("userId") Long userId, @Param("afterId") Long afterId);
+
+    // Rows for articles that have left the digest window are no longer needed
+    @Modifying
+    @Transactional
+    @Query("delete from SentArticle s where s.sentAt < :before")
+    int deleteSentBefore(@Param("before") Instant before);
+}
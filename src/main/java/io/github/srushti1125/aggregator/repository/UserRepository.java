@@ -2,8 +2,45 @@ package io.github.srushti1125.aggregator.repository;
 
 import io.github.srushti1125.aggregator.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
-}
\ No newline at end of file
+
+    // Users whose next digest slot has arrived, or hasn't been computed yet
+    List<User> findByNextDigestAtIsNullOrNextDigestAtLessThanEqual(Instant now);
+
+    // Remember when the user's next digest slot comes due
+    @Modifying
+    @Transactional
+    @Query("update User u set u.nextDigestAt = :nextDigestAt where u.id = :userId")
+    int updateNextDigestAt(@Param("userId") Long userId, @Param("nextDigestAt") Instant nextDigestAt);
+
+    // Atomically claim today's digest for a user. Returns 1 if this caller won the claim,
+    // 0 if the digest was already claimed (e.g. by another instance).
+    @Modifying
+    @Transactional
+    @Query("update User u set u.lastDigestSentOn = :day where u.id = :userId "
+            + "and (u.lastDigestSentOn is null or u.lastDigestSentOn < :day)")
+    int claimDigest(@Param("userId") Long userId, @Param("day") LocalDate day);
+
+    // Give a claim back if the email could not be sent, so a later run can retry
+    @Modifying
+    @Transactional
+    @Query("update User u set u.lastDigestSentOn = null where u.id = :userId and u.lastDigestSentOn = :day")
+    int releaseDigest(@Param("userId") Long userId, @Param("day") LocalDate day);
+
+    // Move the user's "already sent" watermark forward after a successful digest
+    @Modifying
+    @Transactional
+    @Query("update User u set u.lastDigestArticleId = :articleId where u.id = :userId")
+    int updateDigestWatermark(@Param("userId") Long userId, @Param("articleId") Long articleId);
+}
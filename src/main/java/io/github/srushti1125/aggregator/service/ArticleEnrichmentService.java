@@ -0,0 +1,463 @@
+package io.github.srushti1125.aggregator.service;
+
+import io.github.srushti1125.aggregator.model.Article;
+import io.github.srushti1125.aggregator.repository.ArticleRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Enrichment stage that runs after ingest: fetches each new article's page once and
+ * stores its og:image, description and canonical URL on the article row.
+ * <p>
+ * Work runs on its own small thread pool with a bounded queue. The fetch only offers
+ * articles to the queue and never waits; when the queue is full the article is left
+ * for the periodic sweep, which picks up everything not enriched yet. Requests to the
+ * same domain are spaced out, and results are cached by URL. A page that fails in a way
+ * that may go away (timeout, 429, 5xx) is neither cached nor marked enriched; the sweep
+ * tries it again after a growing delay, and gives up after a few attempts.
+ */
+@Service
+public class ArticleEnrichmentService {
+
+    // Only the <head> matters, so never read more than this much of a page
+    private static final int MAX_PAGE_BYTES = 256 * 1024;
+
+    // Redirects are followed by hand so every hop's host is checked
+    private static final int MAX_REDIRECTS = 5;
+
+    private static final Pattern TAG = Pattern.compile("<(meta|link)\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "([a-zA-Z_:.-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))");
+    private static final Pattern CHARSET = Pattern.compile("charset=\"?([\\w-]+)", Pattern.CASE_INSENSITIVE);
+
+    // Google News RSS links point at a Google page that wraps the publisher's article
+    private static final Pattern GOOGLE_NEWS_ARTICLE = Pattern.compile(
+            "https?://news\\.google\\.com/(?:rss/)?articles/([A-Za-z0-9_-]+).*");
+    private static final Pattern EMBEDDED_URL = Pattern.compile("https?://[\\x21-\\x7e]+");
+
+    static final PageMetadata EMPTY = new PageMetadata(null, null, null, null);
+
+    // pageUrl is the page that was actually read, after redirects
+    record PageMetadata(String imageUrl, String description, String canonicalUrl, String pageUrl) {}
+
+    @Autowired
+    private ArticleRepository articleRepository;
+    @Autowired
+    private ClusterCoordinator clusterCoordinator;
+
+    @Value("${aggregator.enrichment.workers:2}")
+    private int workers;
+
+    // Articles waiting for a worker; more than this and new ones are left to the sweep
+    @Value("${aggregator.enrichment.queue-capacity:500}")
+    private int queueCapacity;
+
+    // Minimum gap between two requests to the same domain
+    @Value("${aggregator.enrichment.per-domain-interval-ms:2000}")
+    private long perDomainIntervalMs;
+
+    // If a domain is booked further ahead than this, give the article back to the sweep
+    @Value("${aggregator.enrichment.max-domain-wait-ms:30000}")
+    private long maxDomainWaitMs;
+
+    @Value("${aggregator.enrichment.cache-size:2000}")
+    private int cacheSize;
+
+    // Temporary failures (timeouts, 429, 5xx, busy domain) are retried with a doubling delay
+    // starting here; after max-attempts the article is stored without metadata
+    @Value("${aggregator.enrichment.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${aggregator.enrichment.retry-base-ms:600000}")
+    private long retryBaseMs;
+
+    // Article URLs come from outside, so pages on loopback, private and link-local
+    // addresses are never fetched. Only tests against a local stub turn this on.
+    @Value("${aggregator.enrichment.allow-private-addresses:false}")
+    private boolean allowPrivateAddresses;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    private ThreadPoolExecutor executor;
+
+    // Article ids queued or being worked on, so nothing is enriched twice at the same time
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Next free request slot per domain (epoch millis)
+    private final Map<String, Long> nextSlotByDomain = new ConcurrentHashMap<>();
+
+    // Results by page URL, least recently used dropped first
+    private final Map<String, PageMetadata> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, PageMetadata>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PageMetadata> eldest) {
+                    return size() > cacheSize;
+                }
+            });
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "enrichment-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    // Hand an article to the enrichment workers. Never blocks; returns false if the queue is full.
+    public boolean submit(Long articleId, String url) {
+        return submit(articleId, url, 0);
+    }
+
+    // Same, for an article whose page already failed 'failedAttempts' times
+    boolean submit(Long articleId, String url, int failedAttempts) {
+        if (articleId == null || url == null || !inFlight.add(articleId)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    enrich(articleId, url, failedAttempts);
+                } finally {
+                    inFlight.remove(articleId);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Queue full: the sweep will pick this article up later
+            inFlight.remove(articleId);
+            return false;
+        }
+    }
+
+    // Pick up articles that didn't fit in the queue, or were saved while this instance was down
+    @Scheduled(initialDelayString = "${aggregator.enrichment.sweep-ms:600000}",
+            fixedDelayString = "${aggregator.enrichment.sweep-ms:600000}")
+    public void sweep() {
+        try {
+            // Articles are partitioned by "article:<id>"; those added by our own fetch were submitted directly
+            Predicate<String> ownsKey = clusterCoordinator.ownershipSnapshot();
+            int submitted = 0;
+            for (Article article : articleRepository.findEnrichmentCandidates(
+                    LocalDate.now().minusDays(7), Instant.now(), PageRequest.of(0, 100))) {
+                if (executor.getQueue().remainingCapacity() == 0) break;
+                if (!ownsKey.test("article:" + article.getId())) continue;
+                int failedAttempts = article.getEnrichAttempts() != null ? article.getEnrichAttempts() : 0;
+                if (submit(article.getId(), article.getUrl(), failedAttempts)) submitted++;
+            }
+            if (submitted > 0) {
+                System.out.println("LOG: Enrichment sweep queued " + submitted + " articles.");
+            }
+        } catch (Exception e) {
+            System.err.println("ERROR in enrichment sweep: " + e.getMessage());
+        }
+    }
+
+    private void enrich(Long articleId, String url, int failedAttempts) {
+        try {
+            PageMetadata metadata = metadataFor(url);
+            if (metadata == null) {
+                retryLater(articleId, failedAttempts + 1); // Domain is busy or the fetch failed temporarily
+                return;
+            }
+            // A canonical URL pointing away from the page we read is ignored, it could send readers anywhere
+            String canonicalUrl = sameHost(metadata.canonicalUrl(), metadata.pageUrl()) ? metadata.canonicalUrl() : null;
+            articleRepository.updateEnrichment(articleId,
+                    truncate(metadata.imageUrl()),
+                    truncate(metadata.description()),
+                    truncate(canonicalUrl),
+                    Instant.now());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("ERROR enriching article " + articleId + ": " + e.getMessage());
+        }
+    }
+
+    // Back off exponentially so a page that keeps failing doesn't take a sweep slot every time;
+    // after maxAttempts it is stored without metadata and the sweep stops picking it
+    private void retryLater(Long articleId, int failedAttempts) {
+        if (failedAttempts >= maxAttempts) {
+            articleRepository.updateEnrichment(articleId, null, null, null, Instant.now());
+            System.out.println("LOG: Gave up enriching article " + articleId + " after " + failedAttempts + " attempts.");
+            return;
+        }
+        long delayMs = retryBaseMs << Math.min(failedAttempts - 1, 10);
+        articleRepository.updateEnrichmentRetry(articleId, failedAttempts, Instant.now().plusMillis(delayMs));
+    }
+
+    // Cached metadata for a page, fetching it if needed. Null if the domain's rate limit doesn't allow
+    // a request soon enough, or the fetch failed in a way worth retrying; neither is cached.
+    PageMetadata metadataFor(String url) throws InterruptedException {
+        PageMetadata cached = cache.get(url);
+        if (cached != null) {
+            return cached;
+        }
+        String pageUrl = publisherUrl(url);
+        if (pageUrl == null) {
+            cache.put(url, EMPTY);
+            return EMPTY; // A Google News link we can't unwrap; Google's own page has nothing about the article
+        }
+        String host;
+        try {
+            host = URI.create(pageUrl).getHost();
+        } catch (IllegalArgumentException e) {
+            host = null;
+        }
+        if (host == null) {
+            return EMPTY; // Not a fetchable URL, but the page counts as done
+        }
+        long waitMs = reserveDomainSlot(host.toLowerCase());
+        if (waitMs < 0) {
+            return null;
+        }
+        if (waitMs > 0) {
+            Thread.sleep(waitMs);
+        }
+        PageMetadata metadata = fetchMetadata(pageUrl);
+        if (metadata != null) {
+            cache.put(url, metadata);
+        }
+        return metadata;
+    }
+
+    // Book the next request slot for a domain; returns how long to wait for it, or -1 if that's too long
+    private long reserveDomainSlot(String host) {
+        long now = System.currentTimeMillis();
+        long[] waitMs = new long[1];
+        nextSlotByDomain.compute(host, (key, previous) -> {
+            long slot = previous == null ? now : Math.max(previous + perDomainIntervalMs, now);
+            if (slot - now > maxDomainWaitMs) {
+                waitMs[0] = -1;
+                return previous;
+            }
+            waitMs[0] = slot - now;
+            return slot;
+        });
+        return waitMs[0];
+    }
+
+    // Download the start of the page and read its metadata. Returns null on failures that may go away
+    // (timeouts, connection errors, 429 and 5xx); any other failure counts as a page without metadata.
+    PageMetadata fetchMetadata(String url) {
+        try {
+            URI uri = URI.create(url);
+            for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+                if (!isAllowedTarget(uri)) {
+                    System.err.println("WARN: Not fetching article page " + uri + ": not a public http(s) address");
+                    return EMPTY;
+                }
+                HttpRequest request = HttpRequest.newBuilder(uri)
+                        .timeout(Duration.ofSeconds(10))
+                        .header("User-Agent", "java-aggregator:io.github.srushti1125:v1.0")
+                        .header("Accept", "text/html")
+                        .GET()
+                        .build();
+                HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream body = response.body()) {
+                    int status = response.statusCode();
+                    String location = response.headers().firstValue("Location").orElse(null);
+                    if (status >= 300 && status < 400 && location != null) {
+                        uri = uri.resolve(location.trim());
+                        continue;
+                    }
+                    if (status == 429 || status >= 500) {
+                        System.err.println("WARN: Article page " + uri + " answered " + status + ", will retry later");
+                        return null;
+                    }
+                    String contentType = response.headers().firstValue("Content-Type").orElse("");
+                    if (status >= 300 || (!contentType.isEmpty() && !contentType.toLowerCase().contains("html"))) {
+                        return EMPTY;
+                    }
+                    Charset charset = StandardCharsets.UTF_8;
+                    Matcher charsetMatcher = CHARSET.matcher(contentType);
+                    if (charsetMatcher.find() && Charset.isSupported(charsetMatcher.group(1))) {
+                        charset = Charset.forName(charsetMatcher.group(1));
+                    }
+                    String html = new String(body.readNBytes(MAX_PAGE_BYTES), charset);
+                    return parse(html, uri);
+                }
+            }
+            System.err.println("WARN: Could not fetch article page " + url + ": too many redirects");
+            return EMPTY;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
+            System.err.println("WARN: Could not fetch article page " + url + ", will retry later: " + e);
+            return null;
+        } catch (Exception e) {
+            System.err.println("WARN: Could not fetch article page " + url + ": " + e.getMessage());
+            return EMPTY;
+        }
+    }
+
+    // Only http(s) URLs whose host resolves to public addresses, unless private ones are allowed
+    boolean isAllowedTarget(URI uri) {
+        String scheme = uri.getScheme();
+        if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https")) || uri.getHost() == null) {
+            return false;
+        }
+        if (allowPrivateAddresses) {
+            return true;
+        }
+        try {
+            for (InetAddress address : InetAddress.getAllByName(uri.getHost())) {
+                if (isPrivate(address)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    // Loopback, private (10/8, 172.16/12, 192.168/16, fc00::/7), link-local (incl. cloud metadata), wildcard and multicast
+    static boolean isPrivate(InetAddress address) {
+        return address.isLoopbackAddress() || address.isSiteLocalAddress() || address.isLinkLocalAddress()
+                || address.isAnyLocalAddress() || address.isMulticastAddress()
+                || (address instanceof Inet6Address && (address.getAddress()[0] & 0xfe) == 0xfc);
+    }
+
+    // Read og:image, the description and the canonical URL from the page's <head>
+    static PageMetadata parse(String html, URI pageUri) {
+        int headEnd = html.toLowerCase().indexOf("</head>");
+        String head = headEnd >= 0 ? html.substring(0, headEnd) : html;
+
+        Map<String, String> meta = new HashMap<>();
+        String canonical = null;
+        Matcher tag = TAG.matcher(head);
+        while (tag.find()) {
+            Map<String, String> attributes = attributes(tag.group());
+            if (tag.group(1).equalsIgnoreCase("meta")) {
+                String name = attributes.getOrDefault("property", attributes.get("name"));
+                String content = attributes.get("content");
+                if (name != null && content != null && !content.isBlank()) {
+                    meta.putIfAbsent(name.toLowerCase(), content.trim());
+                }
+            } else if (canonical == null && attributes.getOrDefault("rel", "").toLowerCase().contains("canonical")) {
+                canonical = attributes.get("href");
+            }
+        }
+
+        String image = firstOf(meta.get("og:image"), meta.get("og:image:url"), meta.get("twitter:image"));
+        String description = firstOf(meta.get("og:description"), meta.get("description"), meta.get("twitter:description"));
+        return new PageMetadata(
+                absoluteUrl(image, pageUri),
+                description,
+                absoluteUrl(firstOf(canonical, meta.get("og:url")), pageUri),
+                pageUri.toString());
+    }
+
+    // The URL to fetch for an article. Google News links carry the publisher's URL inside the
+    // base64url article id; ids that don't (the newer opaque format) give null, the page is skipped.
+    static String publisherUrl(String url) {
+        Matcher googleNews = GOOGLE_NEWS_ARTICLE.matcher(url);
+        if (!googleNews.matches()) {
+            return url;
+        }
+        try {
+            byte[] decoded = Base64.getUrlDecoder().decode(googleNews.group(1).replaceAll("=+$", ""));
+            Matcher embedded = EMBEDDED_URL.matcher(new String(decoded, StandardCharsets.ISO_8859_1));
+            return embedded.find() ? embedded.group() : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> attributes(String tag) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher attribute = ATTRIBUTE.matcher(tag);
+        while (attribute.find()) {
+            String value = attribute.group(2) != null ? attribute.group(2)
+                    : attribute.group(3) != null ? attribute.group(3) : attribute.group(4);
+            attributes.putIfAbsent(attribute.group(1).toLowerCase(), HtmlUtils.htmlUnescape(value));
+        }
+        return attributes;
+    }
+
+    private static String firstOf(String... values) {
+        for (String value : values) {
+            if (value != null && !value.isBlank()) return value.trim();
+        }
+        return null;
+    }
+
+    // Resolve relative URLs against the page; only http(s) links are kept
+    private static String absoluteUrl(String url, URI pageUri) {
+        if (url == null) return null;
+        try {
+            URI resolved = pageUri.resolve(url.trim());
+            String scheme = resolved.getScheme();
+            return scheme != null && (scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))
+                    ? resolved.toString() : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // True if both are URLs with the same host (ignoring case)
+    static boolean sameHost(String url, String otherUrl) {
+        if (url == null || otherUrl == null) return false;
+        try {
+            String host = URI.create(url.trim()).getHost();
+            return host != null && host.equalsIgnoreCase(URI.create(otherUrl.trim()).getHost());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static String truncate(String value) {
+        return value != null && value.length() > 999 ? value.substring(0, 999) : value;
+    }
+}
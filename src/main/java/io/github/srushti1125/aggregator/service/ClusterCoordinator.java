@@ -0,0 +1,173 @@
+package io.github.srushti1125.aggregator.service;
+
+import io.github.srushti1125.aggregator.model.InstanceLease;
+import io.github.srushti1125.aggregator.repository.InstanceLeaseRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Coordinates work between several running instances that share one database.
+ * <p>
+ * Every instance keeps a lease row alive in the {@code instance_lease} table by sending
+ * heartbeats. Instances whose heartbeat is older than the lease TTL are treated as dead.
+ * Work items (users for the digest, keywords for the fetch) are split across the live
+ * instances with rendezvous hashing, so when an instance joins or dies only its share
+ * of the keys moves to the others.
+ */
+@Service
+public class ClusterCoordinator {
+
+    @Autowired
+    private InstanceLeaseRepository leaseRepository;
+
+    // Leave empty to get a random id per start-up
+    @Value("${aggregator.cluster.instance-id:}")
+    private String configuredInstanceId;
+
+    // An instance is considered dead once its heartbeat is older than this
+    @Value("${aggregator.cluster.lease-ttl-ms:30000}")
+    private long leaseTtlMs;
+
+    @Value("${aggregator.cluster.heartbeat-ms:10000}")
+    private long heartbeatMs;
+
+    private String instanceId;
+
+    // Heartbeats get their own thread: Spring's scheduler has a single thread, and a long
+    // fetch on it must not let our lease expire while we are still working
+    private ScheduledExecutorService heartbeatExecutor;
+
+    @PostConstruct
+    public void init() {
+        instanceId = (configuredInstanceId == null || configuredInstanceId.isBlank())
+                ? UUID.randomUUID().toString()
+                : configuredInstanceId.trim();
+    }
+
+    // Join once the application is up, so start-up never waits on the database for this
+    @EventListener(ApplicationReadyEvent.class)
+    public void register() {
+        InstanceLease lease = new InstanceLease();
+        lease.setInstanceId(instanceId);
+        lease.setStartedAt(Instant.now());
+        lease.setHeartbeatAt(Instant.now());
+        leaseRepository.save(lease);
+        System.out.println("LOG: Registered cluster instance " + instanceId);
+
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatExecutor.scheduleAtFixedRate(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void heartbeat() {
+        try {
+            InstanceLease lease = leaseRepository.findById(instanceId).orElseGet(() -> {
+                // Our lease was removed (e.g. we were paused longer than the TTL), so re-join
+                InstanceLease fresh = new InstanceLease();
+                fresh.setInstanceId(instanceId);
+                fresh.setStartedAt(Instant.now());
+                return fresh;
+            });
+            lease.setHeartbeatAt(Instant.now());
+            leaseRepository.save(lease);
+
+            // Remove leases of instances that died without deregistering
+            leaseRepository.deleteByHeartbeatAtBefore(Instant.now().minusMillis(leaseTtlMs * 2));
+        } catch (Exception e) {
+            System.err.println("ERROR sending cluster heartbeat for " + instanceId + ": " + e.getMessage());
+        }
+    }
+
+    // Hand our share over to the other instances right away on a clean shutdown
+    @PreDestroy
+    public void deregister() {
+        if (heartbeatExecutor == null) {
+            return; // Never registered (start-up failed)
+        }
+        heartbeatExecutor.shutdownNow();
+        try {
+            leaseRepository.deleteById(instanceId);
+            System.out.println("LOG: Deregistered cluster instance " + instanceId);
+        } catch (Exception e) {
+            System.err.println("ERROR deregistering cluster instance " + instanceId + ": " + e.getMessage());
+        }
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Ids of all instances with a live lease, sorted. Always contains this instance,
+     * even if our own heartbeat is late, so a lone node never ends up owning nothing.
+     */
+    public List<String> liveInstances() {
+        Instant cutoff = Instant.now().minusMillis(leaseTtlMs);
+        List<String> ids = new ArrayList<>();
+        for (InstanceLease lease : leaseRepository.findByHeartbeatAtAfter(cutoff)) {
+            ids.add(lease.getInstanceId());
+        }
+        if (!ids.contains(instanceId)) {
+            ids.add(instanceId);
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    /**
+     * Takes one snapshot of the live instances and returns a test for "this key is ours".
+     * Every key is owned by exactly one live instance, so a job that skips the keys it doesn't
+     * own leaves them to the other instances, and a dead instance's keys move to the survivors.
+     * Use one snapshot per job run so the whole run sees the same partitioning.
+     */
+    public Predicate<String> ownershipSnapshot() {
+        List<String> instances = liveInstances();
+        if (instances.size() == 1) {
+            return key -> true;
+        }
+        System.out.println("LOG: Partitioning work across " + instances.size() + " instances: " + instances);
+        return key -> instanceId.equals(ownerOf(key, instances));
+    }
+
+    // Rendezvous (highest random weight) hashing: every instance scores the key, highest score wins
+    static String ownerOf(String key, List<String> instances) {
+        String owner = null;
+        long bestWeight = 0;
+        for (String instance : instances) {
+            long weight = mix(((long) instance.hashCode() << 32) ^ (key.hashCode() & 0xffffffffL));
+            if (owner == null || weight > bestWeight || (weight == bestWeight && instance.compareTo(owner) < 0)) {
+                owner = instance;
+                bestWeight = weight;
+            }
+        }
+        return owner;
+    }
+
+    // 64-bit finalizer from MurmurHash3, spreads the combined hash bits evenly
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53a87c3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
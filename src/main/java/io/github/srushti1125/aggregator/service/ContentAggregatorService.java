@@ -2,6 +2,7 @@ package io.github.srushti1125.aggregator.service;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import io.github.srushti1125.aggregator.model.Article;
+import io.github.srushti1125.aggregator.model.KeywordPollState;
 import io.github.srushti1125.aggregator.model.User;
 import io.github.srushti1125.aggregator.repository.ArticleRepository;
 import io.github.srushti1125.aggregator.repository.UserRepository;
@@ -38,7 +39,9 @@ import org.springframework.web.client.RestTemplate;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 // --- JSON Record Classes ---
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -68,12 +71,23 @@ public class ContentAggregatorService {
     private UserRepository userRepository;
     @Autowired
     private ArticleRepository articleRepository;
+    @Autowired
+    private ClusterCoordinator clusterCoordinator;
+    @Autowired
+    private DigestWindowStore digestWindowStore;
+    @Autowired
+    private KeywordPollScheduler pollScheduler;
+    @Autowired
+    private ArticleEnrichmentService enrichmentService;
     @Value("${newsapi.key}")
     private String newsApiKey;
     private final RestTemplate restTemplate = new RestTemplate();
 
-    // Runs 5 seconds after startup (for testing), then hourly
-    @Scheduled(initialDelay = 5000, fixedRate = 3600000)
+    // Runs 5 seconds after startup (for testing), then every 15 minutes; each run only polls the
+    // keyword/source pairs that are due according to KeywordPollScheduler.
+    // Raise the initial delay on rolling restarts so a fresh instance serves requests before fetching.
+    @Scheduled(initialDelayString = "${aggregator.fetch.initial-delay-ms:5000}",
+            fixedRateString = "${aggregator.fetch.tick-ms:900000}")
     public void fetchContent() {
         System.out.println("LOG: fetchContent() TASK STARTED (fetching last 7 days where possible).");
 
@@ -94,21 +108,34 @@ public class ContentAggregatorService {
         // Hacker News uses Unix timestamps (seconds since epoch)
         long sevenDaysAgoTimestamp = sevenDaysAgoDate.atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
 
+        // Keywords are partitioned by "keyword:<keyword>", so all sources of a keyword are polled by one instance
+        Predicate<String> ownsKey = clusterCoordinator.ownershipSnapshot();
+
+        Set<String> activeKeywords = new HashSet<>();
+        for (String keyword : allKeywords) {
+            if (keyword != null && !keyword.trim().isEmpty()) activeKeywords.add(keyword.trim().toLowerCase());
+        }
+        Map<String, KeywordPollState> pollStates = pollScheduler.loadStates(activeKeywords);
+        // Every pair is scheduled from the start of this run, however long the fetches before it take
+        Instant runStart = Instant.now();
+
         for (String keyword : allKeywords) {
             if (keyword == null || keyword.trim().isEmpty()) continue;
             String trimmedKeyword = keyword.trim();
-            // Pass the calculated date/timestamp to the relevant fetch methods
-            fetchFromHackerNews(trimmedKeyword, sevenDaysAgoTimestamp);
-            fetchFromNewsAPI(trimmedKeyword, sevenDaysAgoDate);
-            fetchFromReddit(trimmedKeyword); // Reddit fetch remains unchanged (no reliable date filter)
-            fetchFromToiRss(trimmedKeyword); // RSS fetch remains unchanged
-            fetchFromMediumRss(trimmedKeyword); // RSS fetch remains unchanged
+            String keywordKey = trimmedKeyword.toLowerCase();
+            if (!ownsKey.test("keyword:" + keywordKey)) continue;
+            // Poll each source only when it is due; the fetch methods report how many new articles they stored
+            pollScheduler.pollIfDue(pollStates, keywordKey, "Hacker News", runStart, () -> fetchFromHackerNews(trimmedKeyword, sevenDaysAgoTimestamp));
+            pollScheduler.pollIfDue(pollStates, keywordKey, "NewsAPI", runStart, () -> fetchFromNewsAPI(trimmedKeyword, sevenDaysAgoDate));
+            pollScheduler.pollIfDue(pollStates, keywordKey, "Reddit", runStart, () -> fetchFromReddit(trimmedKeyword)); // No reliable date filter
+            pollScheduler.pollIfDue(pollStates, keywordKey, "Times of India", runStart, () -> fetchFromToiRss(trimmedKeyword));
+            pollScheduler.pollIfDue(pollStates, keywordKey, "Medium", runStart, () -> fetchFromMediumRss(trimmedKeyword));
         }
         System.out.println("LOG: fetchContent() TASK FINISHED.");
     }
 
-    // saveArticle method remains the same as the previous "complete code" version
-    private void saveArticle(String title, String url, String imageUrl, LocalDate publishedDate, String source) {
+    // Returns true if the article was new and got stored
+    private boolean saveArticle(String title, String url, String imageUrl, LocalDate publishedDate, String source) {
         if (url != null && title != null && publishedDate != null && !articleRepository.existsByUrl(url)) {
             Article article = new Article();
             article.setTitle(title.length() > 999 ? title.substring(0, 999) : title);
@@ -118,27 +145,32 @@ public class ContentAggregatorService {
             article.setSource(source); // <-- Save the source
             article.setSentInDigest(false);
             try {
-                articleRepository.save(article);
+                Article saved = articleRepository.save(article);
+                digestWindowStore.add(saved); // Keep the in-memory digest window current
+                enrichmentService.submit(saved.getId(), saved.getUrl()); // Image/summary are fetched in the background
                 System.out.println("SUCCESS: Saved new ["+ source +"] article: " + article.getTitle());
+                return true;
             } catch (Exception e) {
                 System.err.println("ERROR saving article '" + title + "': " + e.getMessage());
             }
         } else {
             System.out.println("LOG: Skipping duplicate, null data, or old article: " + (title != null ? title : "No Title"));
         }
+        return false;
     }
 
     /**
      * Source 1: Hacker News API - Modified for Date Range
      */
     // Added startTimestampSeconds parameter
-    private void fetchFromHackerNews(String keyword, long startTimestampSeconds) {
+    private int fetchFromHackerNews(String keyword, long startTimestampSeconds) {
         // Add numericFilters URL parameter to filter by creation timestamp
         String apiUrl = "http://hn.algolia.com/api/v1/search?query=" + URLEncoder.encode(keyword, StandardCharsets.UTF_8)
                 + "&tags=story"
                 + "&numericFilters=created_at_i>" + startTimestampSeconds; // Filter by timestamp
 
         System.out.println("LOG: Calling HackerNews API (last 7 days): " + apiUrl);
+        int stored = 0;
         try {
             HnResponse response = restTemplate.getForObject(apiUrl, HnResponse.class);
             if (response != null && response.hits() != null) {
@@ -149,21 +181,23 @@ public class ContentAggregatorService {
                         // Convert Unix timestamp to LocalDate
                         publishedDate = Instant.ofEpochSecond(hit.created_at_i()).atZone(ZoneId.systemDefault()).toLocalDate();
                     }
-                    saveArticle(hit.title(), hit.url(), null, publishedDate, "Hacker News"); // Add source // Pass date, no image
+                    if (saveArticle(hit.title(), hit.url(), null, publishedDate, "Hacker News")) stored++; // Add source // Pass date, no image
                 }
             } else {
                 System.out.println("LOG: HackerNews call for '" + keyword + "' returned null or no hits.");
             }
         } catch (Exception e) {
             System.err.println("CRITICAL ERROR fetching from HackerNews for '" + keyword + "': " + e.getMessage());
+            return -1;
         }
+        return stored;
     }
 
     /**
      * Source 2: NewsAPI.org - Modified for Date Range
      */
     // Added startDate parameter
-    private void fetchFromNewsAPI(String keyword, LocalDate startDate) {
+    private int fetchFromNewsAPI(String keyword, LocalDate startDate) {
         // Format the start date for the API query
         String formattedStartDate = startDate.format(DateTimeFormatter.ISO_LOCAL_DATE);
         // Add the 'from' URL parameter
@@ -172,6 +206,7 @@ public class ContentAggregatorService {
                 + "&from=" + formattedStartDate; // Filter by start date
 
         System.out.println("LOG: Calling NewsAPI (last 7 days): " + apiUrl);
+        int stored = 0;
         try {
             NewsApiResponse response = restTemplate.getForObject(apiUrl, NewsApiResponse.class);
             if (response != null && response.articles() != null) {
@@ -193,7 +228,7 @@ public class ContentAggregatorService {
                     }
                     // Double-check date is within range before saving (API might include boundary slightly off)
                     if (publishedDate != null && !publishedDate.isBefore(startDate)) {
-                        saveArticle(article.title(), article.url(), article.urlToImage(), publishedDate, "NewsAPI"); // Add source // Pass date and image
+                        if (saveArticle(article.title(), article.url(), article.urlToImage(), publishedDate, "NewsAPI")) stored++; // Add source // Pass date and image
                     } else {
                         System.out.println("LOG: Skipping NewsAPI article - too old or no date: " + article.title());
                     }
@@ -203,7 +238,9 @@ public class ContentAggregatorService {
             }
         } catch (Exception e) {
             System.err.println("CRITICAL ERROR fetching from NewsAPI for '" + keyword + "': " + e.getMessage());
+            return -1;
         }
+        return stored;
     }
 
     // --- fetchFromReddit, fetchFromToiRss, fetchFromMediumRss, fetchFromGoogleNewsRss ---
@@ -215,9 +252,10 @@ public class ContentAggregatorService {
     /**
      * Source 3: Reddit Search API - Unchanged (No reliable date filter)
      */
-    private void fetchFromReddit(String keyword) {
+    private int fetchFromReddit(String keyword) {
         String apiUrl = "https://www.reddit.com/search.json?q=" + URLEncoder.encode(keyword, StandardCharsets.UTF_8);
         System.out.println("LOG: Calling Reddit API: " + apiUrl);
+        int stored = 0;
         try {
             HttpHeaders headers = new HttpHeaders();
             headers.set("User-Agent", "java-aggregator:io.github.srushti1125:v1.0 (by /u/yourRedditUsername)"); // Be polite
@@ -231,37 +269,40 @@ public class ContentAggregatorService {
                     if (post.data() != null && post.data().created_utc() != null) {
                         publishedDate = Instant.ofEpochSecond(post.data().created_utc().longValue()).atZone(ZoneId.systemDefault()).toLocalDate();
                     }
-                    saveArticle(post.data() != null ? post.data().title() : null,
+                    if (saveArticle(post.data() != null ? post.data().title() : null,
                             post.data() != null ? post.data().url() : null,
-                            null, publishedDate, "Reddit"); // Add source// Pass date, no image
+                            null, publishedDate, "Reddit")) stored++; // Add source// Pass date, no image
                 }
             } else {
                 System.out.println("LOG: Reddit call for '" + keyword + "' returned null or no data/children.");
             }
         } catch (Exception e) {
             System.err.println("CRITICAL ERROR fetching from Reddit for '" + keyword + "': " + e.getMessage());
+            return -1;
         }
+        return stored;
     }
 
     /**
      * Source 4: The Times of India (via Google News RSS) - Unchanged
      */
-    private void fetchFromToiRss(String keyword) {
-        fetchFromGoogleNewsRss(keyword, "timesofindia.indiatimes.com");
+    private int fetchFromToiRss(String keyword) {
+        return fetchFromGoogleNewsRss(keyword, "timesofindia.indiatimes.com");
     }
 
     /**
      * Source 5: Medium (via Google News RSS) - Unchanged
      */
-    private void fetchFromMediumRss(String keyword) {
-        fetchFromGoogleNewsRss(keyword, "medium.com");
+    private int fetchFromMediumRss(String keyword) {
+        return fetchFromGoogleNewsRss(keyword, "medium.com");
     }
 
     /**
      * Helper method to fetch from Google News RSS - Unchanged (No reliable date filter)
      */
-    private void fetchFromGoogleNewsRss(String keyword, String site) {
+    private int fetchFromGoogleNewsRss(String keyword, String site) {
         XmlReader reader = null; // Declare reader outside try block
+        int stored = 0;
         try {
             String encodedQuery = URLEncoder.encode(keyword + " site:" + site, StandardCharsets.UTF_8);
             String rssUrl = "https://news.google.com/rss/search?q=" + encodedQuery + "&hl=en-IN&gl=IN&ceid=IN:en";
@@ -280,13 +321,14 @@ public class ContentAggregatorService {
                         publishedDate = entry.getPublishedDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
                     }
                     String sourceName = site.contains("timesofindia") ? "Times of India" : (site.contains("medium.com") ? "Medium" : "Google News");
-                    saveArticle(entry.getTitle(), entry.getLink(), null, publishedDate, sourceName); // Add source // Pass date, no image
+                    if (saveArticle(entry.getTitle(), entry.getLink(), null, publishedDate, sourceName)) stored++; // Add source // Pass date, no image
                 }
             } else {
                 System.out.println("LOG: Google News RSS call for '" + keyword + "' on site '" + site + "' returned null or no entries.");
             }
         } catch (Exception e) {
             System.err.println("CRITICAL ERROR fetching from Google News RSS for '" + keyword + "' on site '" + site + "': " + e.getMessage());
+            return -1;
         } finally {
             // Ensure the reader is closed
             if (reader != null) {
@@ -297,5 +339,6 @@ public class ContentAggregatorService {
                 }
             }
         }
+        return stored;
     }
 }
\ No newline at end of file
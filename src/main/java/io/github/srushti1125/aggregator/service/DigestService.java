@@ -1,125 +1,275 @@
 package io.github.srushti1125.aggregator.service;
 
 import io.github.srushti1125.aggregator.model.Article;
+import io.github.srushti1125.aggregator.model.SentArticle;
 import io.github.srushti1125.aggregator.model.User;
 import io.github.srushti1125.aggregator.repository.ArticleRepository;
+import io.github.srushti1125.aggregator.repository.SentArticleRepository;
 import io.github.srushti1125.aggregator.repository.UserRepository;
 
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value; // Import Value
+import org.springframework.context.annotation.Lazy;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
 
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.ArrayList; // Import ArrayList
-import java.util.HashSet;   // Import HashSet
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Set;       // Import Set
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
 @Service
 public class DigestService {
 
+    // Only needed when a digest goes out, so don't build it during start-up
     @Autowired
+    @Lazy
     private JavaMailSender mailSender;
     @Autowired
     private UserRepository userRepository;
     @Autowired
     private ArticleRepository articleRepository;
+    @Autowired
+    private ClusterCoordinator clusterCoordinator;
+    @Autowired
+    private DigestWindowStore digestWindowStore;
+    @Autowired
+    private SentArticleRepository sentArticleRepository;
 
     // Get 'from' address from properties for consistency
     @Value("${spring.mail.username}")
     private String mailFromAddress;
 
-    // Test: 1 min delay, then hourly. Prod: Daily at 8 AM
-//    @Scheduled(initialDelay = 60000, fixedRate = 3600000)
-    @Scheduled(cron = "0 0 8 * * ?")
-    public void sendDailyDigest() {
-        System.out.println("Preparing daily digests for the last 7 days...");
-        LocalDate sevenDaysAgo = LocalDate.now().minusDays(7);
+    // Local time a user gets their digest if they haven't picked one
+    @Value("${aggregator.digest.default-time:08:00}")
+    private String defaultDigestTime;
+
+    // Time zone used for users who haven't picked one (empty = server time zone)
+    @Value("${aggregator.digest.default-zone:}")
+    private String defaultZone;
+
+    // Digests are spread over this many minutes after each user's preferred time
+    @Value("${aggregator.digest.spread-minutes:60}")
+    private long spreadMinutes;
 
-        // Find all potentially relevant articles (unsent, within last 7 days)
-        List<Article> articlesToSend = articleRepository.findBySentInDigestFalseAndPublishedDateGreaterThanEqual(sevenDaysAgo);
-        if (articlesToSend.isEmpty()) {
-            System.out.println("No new articles from the last 7 days found.");
+    // Upper bound on digests sent per tick, keeps the DB/SMTP load steady
+    @Value("${aggregator.digest.max-per-tick:50}")
+    private int maxDigestsPerTick;
+
+    // Rolling worker: every minute, send the digests whose delivery slot has come due.
+    // Each user's slot is their preferred local time plus a fixed per-user offset
+    // inside the spread window, so the old 8 AM burst becomes a steady trickle.
+    @Scheduled(initialDelayString = "${aggregator.digest.tick-ms:60000}",
+            fixedDelayString = "${aggregator.digest.tick-ms:60000}")
+    public void sendDueDigests() {
+        Instant now = Instant.now();
+        // Only users whose precomputed slot has arrived (indexed lookup, not a scan of every user)
+        List<User> candidates = userRepository.findByNextDigestAtIsNullOrNextDigestAtLessThanEqual(now);
+        if (candidates.isEmpty()) {
             return;
         }
-        System.out.println("Found " + articlesToSend.size() + " potential articles from the last 7 days.");
 
-        List<User> users = userRepository.findAll();
-        if (users.isEmpty()) {
-            System.out.println("No users registered to send digests to.");
-            // Don't mark as sent if no users, maybe someone registers later
+        // Users are partitioned by "user:<id>"; the per-day claim below still guards a change of owner mid-tick
+        Predicate<String> ownsKey = clusterCoordinator.ownershipSnapshot();
+
+        List<User> dueUsers = new ArrayList<>();
+        Map<Long, DueSlot> slots = new HashMap<>();
+        for (User user : candidates) {
+            if (!ownsKey.test("user:" + user.getId())) continue;
+
+            DueSlot slot = dueSlot(user, now);
+            if (slot == null) {
+                // New user, changed schedule, or already done: just remember when the next slot is
+                userRepository.updateNextDigestAt(user.getId(), nextSlotAfter(user, now));
+            } else if (user.getKeywords() == null || user.getKeywords().isEmpty()) {
+                // Skip users without keywords until their next slot
+                userRepository.updateNextDigestAt(user.getId(), slotFor(user, slot.day().plusDays(1)).toInstant());
+            } else {
+                dueUsers.add(user);
+                slots.put(user.getId(), slot);
+            }
+        }
+        if (dueUsers.isEmpty()) {
             return;
         }
 
+        // Oldest slots first; whatever doesn't fit in this tick goes out on the next one
+        dueUsers.sort(Comparator.comparing(user -> slots.get(user.getId()).at()));
+        if (dueUsers.size() > maxDigestsPerTick) {
+            System.out.println(dueUsers.size() + " digests due, sending " + maxDigestsPerTick + " this tick.");
+            dueUsers = dueUsers.subList(0, maxDigestsPerTick);
+        }
+
+        LocalDate sevenDaysAgo = LocalDate.now().minusDays(7);
+        // Candidates are picked from the in-memory digest window; catch up on articles other instances saved first
+        digestWindowStore.refresh();
+        long settledId = digestWindowStore.settledId();
+        System.out.println("Sending " + dueUsers.size() + " due digests from " + digestWindowStore.size() + " articles of the last 7 days.");
+
         int totalEmailsSent = 0;
-        // Keep track of articles successfully included in ANY email this run
-        Set<Article> articlesSuccessfullySent = new HashSet<>();
+        // Keep track of articles successfully included in ANY email this tick
+        Set<Long> articlesSuccessfullySent = new HashSet<>();
 
-        for (User user : users) {
-            // Skip users without keywords
-            if (user.getKeywords() == null || user.getKeywords().isEmpty()) {
-                System.out.println("Skipping user " + user.getEmail() + " as they have no keywords.");
+        for (User user : dueUsers) {
+            LocalDate localDay = slots.get(user.getId()).day();
+            Instant nextSlot = slotFor(user, localDay.plusDays(1)).toInstant();
+            // Claim this user's digest for their local day first, so no other instance emails them too.
+            // Users with nothing relevant keep the claim as well: they are done until tomorrow's slot.
+            if (userRepository.claimDigest(user.getId(), localDay) == 0) {
+                userRepository.updateNextDigestAt(user.getId(), nextSlot);
                 continue;
             }
 
-            // Filter the potential articles to find ones relevant JUST to this user
-            List<Article> relevantArticlesForUser = articlesToSend.stream()
-                    .filter(article -> matchesUserKeywords(article, user))
-                    .collect(Collectors.toList());
+            // Find the articles relevant JUST to this user and not sent to them yet; only those are loaded from the DB
+            Long watermark = user.getLastDigestArticleId();
+            Set<Long> alreadySent = watermark != null
+                    ? sentArticleRepository.findArticleIdsSentToUserAfter(user.getId(), watermark) : Set.of();
+            List<Long> relevantArticleIds = digestWindowStore.select(user.getKeywords(), sevenDaysAgo, watermark, alreadySent);
 
-            if (!relevantArticlesForUser.isEmpty()) {
+            if (!relevantArticleIds.isEmpty()) {
+                List<Article> relevantArticlesForUser = articleRepository.findAllById(relevantArticleIds);
                 // Try to send the email
                 boolean emailSent = sendDigestEmail(user, relevantArticlesForUser);
                 if (emailSent) {
                     // If sending succeeded, add the articles from THIS email to the set
-                    articlesSuccessfullySent.addAll(relevantArticlesForUser);
+                    relevantArticlesForUser.forEach(article -> articlesSuccessfullySent.add(article.getId()));
+                    recordSent(user, relevantArticlesForUser, settledId);
                     totalEmailsSent++;
+                    userRepository.updateNextDigestAt(user.getId(), nextSlot);
+                } else {
+                    // Give the claim back and leave nextDigestAt alone, so the next tick retries
+                    userRepository.releaseDigest(user.getId(), localDay);
                 }
             } else {
                 System.out.println("No relevant articles found in last 7 days for user: " + user.getEmail());
+                userRepository.updateNextDigestAt(user.getId(), nextSlot);
             }
         }
 
-        // After looping through all users, mark ONLY the articles that were successfully sent
+        // After looping through the due users, mark ONLY the articles that were successfully sent
         if (!articlesSuccessfullySent.isEmpty()) {
-            markArticlesAsSent(new ArrayList<>(articlesSuccessfullySent)); // Convert Set to List for saveAll
-        } else {
-            System.out.println("No relevant articles were sent in any digests this run.");
+            markArticlesAsSent(articlesSuccessfullySent);
         }
-        System.out.println("Digest process finished. Sent " + totalEmailsSent + " emails.");
+        System.out.println("Digest tick finished. Sent " + totalEmailsSent + " emails.");
     }
 
-    // Helper method to mark a list of articles as sent
-    private void markArticlesAsSent(List<Article> articles) {
-        if (articles != null && !articles.isEmpty()) { // Add null check
-            for (Article article : articles) {
-                article.setSentInDigest(true);
+    // Remember what the user got. Ids commit out of order, so the watermark only moves up to ids
+    // that are surely committed; articles above it are recorded one by one, and an article that
+    // commits late below an id already sent still reaches the user.
+    void recordSent(User user, List<Article> articles, long settledId) {
+        Instant sentAt = Instant.now();
+        List<SentArticle> rows = new ArrayList<>();
+        long newestArticleId = 0;
+        for (Article article : articles) {
+            SentArticle row = new SentArticle();
+            row.setUserId(user.getId());
+            row.setArticleId(article.getId());
+            row.setSentAt(sentAt);
+            rows.add(row);
+            newestArticleId = Math.max(newestArticleId, article.getId());
+        }
+        sentArticleRepository.saveAll(rows);
+
+        long watermark = Math.min(newestArticleId, settledId);
+        if (user.getLastDigestArticleId() == null || watermark > user.getLastDigestArticleId()) {
+            userRepository.updateDigestWatermark(user.getId(), watermark);
+        }
+    }
+
+    // Per-user sent rows are only needed while their articles can still be picked (7-day window)
+    @Scheduled(cron = "${aggregator.digest.window.compact-cron:0 30 3 * * ?}")
+    public void pruneSentArticles() {
+        try {
+            int removed = sentArticleRepository.deleteSentBefore(Instant.now().minus(Duration.ofDays(8)));
+            System.out.println("LOG: Removed " + removed + " per-user sent records older than the digest window.");
+        } catch (Exception e) {
+            System.err.println("ERROR pruning sent records: " + e.getMessage());
+        }
+    }
+
+    // The user's own time zone, falling back to the configured default and then the server's
+    private ZoneId zoneFor(User user) {
+        String zone = user.getTimeZone() != null && !user.getTimeZone().isBlank() ? user.getTimeZone() : defaultZone;
+        if (zone != null && !zone.isBlank()) {
+            try {
+                return ZoneId.of(zone.trim());
+            } catch (DateTimeException e) {
+                System.err.println("WARN: Unknown time zone '" + zone + "' for user " + user.getEmail() + ", using server zone.");
             }
-            articleRepository.saveAll(articles);
-            System.out.println("Marked " + articles.size() + " articles as sent.");
         }
+        return ZoneId.systemDefault();
     }
 
-    // Helper method to check if article title matches user keywords
-    private boolean matchesUserKeywords(Article article, User user) {
-        // Add null checks for safety
-        if (article == null || article.getTitle() == null || user == null || user.getKeywords() == null) {
-            return false;
+    // A delivery slot: the local day it belongs to, and when it is due
+    record DueSlot(LocalDate day, ZonedDateTime at) {}
+
+    // The user's latest slot that has come due and hasn't been processed yet, or null if there is none.
+    // Yesterday's slot is checked too: with a late preferred time the offset can push it past local midnight.
+    DueSlot dueSlot(User user, Instant now) {
+        LocalDate today = LocalDate.ofInstant(now, zoneFor(user));
+        for (LocalDate day : List.of(today, today.minusDays(1))) {
+            ZonedDateTime slot = slotFor(user, day);
+            if (!now.isBefore(slot.toInstant())) {
+                boolean alreadyDone = user.getLastDigestSentOn() != null && !user.getLastDigestSentOn().isBefore(day);
+                return alreadyDone ? null : new DueSlot(day, slot);
+            }
         }
-        String titleLower = article.getTitle().toLowerCase();
-        for (String keyword : user.getKeywords()) {
-            // Check keyword isn't null/empty before matching
-            if (keyword != null && !keyword.trim().isEmpty() && titleLower.contains(keyword.trim().toLowerCase())) {
-                return true; // Match found
+        return null;
+    }
+
+    // First slot strictly after 'now' (used when nothing is due right now)
+    Instant nextSlotAfter(User user, Instant now) {
+        LocalDate today = LocalDate.ofInstant(now, zoneFor(user));
+        for (LocalDate day = today.minusDays(1); ; day = day.plusDays(1)) {
+            Instant slot = slotFor(user, day).toInstant();
+            if (slot.isAfter(now)) {
+                return slot;
             }
         }
-        return false; // No match found
+    }
+
+    // Delivery slot for a user on a given local day: preferred time plus a stable per-user offset.
+    // The slot can fall on the next calendar day; it still belongs to (and is claimed for) localDay.
+    ZonedDateTime slotFor(User user, LocalDate localDay) {
+        LocalTime preferred = user.getDigestTime() != null ? user.getDigestTime() : LocalTime.parse(defaultDigestTime.trim());
+        long spreadSeconds = spreadMinutes * 60;
+        long offsetSeconds = spreadSeconds > 0 && user.getId() != null
+                ? Math.floorMod(user.getId() * 0x9E3779B97F4A7C15L, spreadSeconds) // golden-ratio hash spreads sequential ids
+                : 0;
+        return localDay.atTime(preferred).atZone(zoneFor(user)).plusSeconds(offsetSeconds);
+    }
+
+    // Helper method to mark a list of articles as sent
+    // A bulk update of the flag only: the entities were loaded before the sends, and saving them
+    // back would overwrite what enrichment stored in the meantime
+    private void markArticlesAsSent(Set<Long> articleIds) {
+        if (articleIds != null && !articleIds.isEmpty()) { // Add null check
+            articleRepository.markSentInDigest(articleIds);
+            digestWindowStore.markSent(articleIds);
+            System.out.println("Marked " + articleIds.size() + " articles as sent.");
+        }
+    }
+
+    // Link for an article: the canonical URL from enrichment, but only if it stays on the article's own host
+    static String linkFor(Article article) {
+        String canonical = article.getCanonicalUrl();
+        return canonical != null && ArticleEnrichmentService.sameHost(canonical, article.getUrl()) ? canonical : article.getUrl();
     }
 
     // Updated sendDigestEmail with improved HTML and boolean return
@@ -146,6 +296,7 @@ public class DigestService {
                     .append(".article-content{overflow: hidden;} ") // Div containing text, allows float wrapping
                     .append(".article-title a{text-decoration: none; color: #1a0dab; font-size: 1.1em; font-weight: bold; display: block; margin-bottom: 5px;} ") // Title style
                     .append(".article-title a:hover{text-decoration: underline;} ")
+                    .append(".article-summary{font-size: 0.9em; color: #444; margin: 0;} ") // Summary from enrichment
                     .append(".article-source{font-size: 0.85em; color: #555; margin-top: 5px;}") // Source style
                     .append(".footer{font-size: 0.8em; color: #888; margin-top: 30px; text-align: center; border-top: 1px solid #eee; padding-top: 15px;}") // Footer style
                     .append("</style></head><body>");
@@ -161,20 +312,25 @@ public class DigestService {
 
                 // Add image if available
                 if (article.getImageUrl() != null && !article.getImageUrl().isEmpty()) {
-                    htmlBody.append("<img src='").append(article.getImageUrl()).append("' alt='' class='article-img' />"); // Empty alt is acceptable for decorative images
+                    htmlBody.append("<img src='").append(HtmlUtils.htmlEscape(article.getImageUrl())).append("' alt='' class='article-img' />"); // Empty alt is acceptable for decorative images
                 }
 
                 // Add content div (for text)
                 htmlBody.append("<div class='article-content'>");
 
-                // Add title as a link
-                htmlBody.append("<div class='article-title'><a href='").append(article.getUrl()).append("' target='_blank'>"); // target='_blank' opens in new tab
-                htmlBody.append(article.getTitle() != null ? article.getTitle() : "No Title"); // Handle potential null title gracefully
+                // Add title as a link. URLs and text from feeds and fetched pages are escaped.
+                htmlBody.append("<div class='article-title'><a href='").append(HtmlUtils.htmlEscape(linkFor(article))).append("' target='_blank'>"); // target='_blank' opens in new tab
+                htmlBody.append(article.getTitle() != null ? HtmlUtils.htmlEscape(article.getTitle()) : "No Title"); // Handle potential null title gracefully
                 htmlBody.append("</a></div>");
 
+                // Add summary if enrichment found one (escaped, it comes from a third-party page)
+                if (article.getSummary() != null && !article.getSummary().isEmpty()) {
+                    htmlBody.append("<p class='article-summary'>").append(HtmlUtils.htmlEscape(article.getSummary())).append("</p>");
+                }
+
                 // Add source if available
                 if (article.getSource() != null && !article.getSource().isEmpty()) {
-                    htmlBody.append("<div class='article-source'>Source: ").append(article.getSource()).append("</div>");
+                    htmlBody.append("<div class='article-source'>Source: ").append(HtmlUtils.htmlEscape(article.getSource())).append("</div>");
                 }
 
                 htmlBody.append("</div>"); // End article-content
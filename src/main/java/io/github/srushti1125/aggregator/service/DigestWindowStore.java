@@ -0,0 +1,323 @@
+package io.github.srushti1125.aggregator.service;
+
+import io.github.srushti1125.aggregator.model.Article;
+import io.github.srushti1125.aggregator.repository.ArticleRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory copy of the digest window (articles of the last 7 days), so digests can pick
+ * and match candidates without loading {@link Article} entities through Hibernate.
+ * <p>
+ * Articles are kept column-wise in primitive arrays: id, published day (epoch day),
+ * source id and the title's lower-cased words as term ids into a shared dictionary.
+ * Per article that is 8 (id) + 4 (day) + 2 (source) + 4 (term offset) + 4 per title
+ * word + 1 bit (sent flag), i.e. about 18 bytes + 4 bytes per word, ~58 bytes for a
+ * 10-word title. The dictionary is shared by all articles and grows with the vocabulary,
+ * not the article count: with 100k such titles over a 20k-word vocabulary the whole store
+ * retains ~81 bytes per article (measured in {@code DigestWindowStoreTests}).
+ * {@link #estimatedBytes()} estimates the size from the array lengths and a fixed cost per term.
+ * <p>
+ * New articles are added by the fetch as they are saved, and articles saved by other
+ * instances are picked up with an id-based delta query before each digest tick. The delta
+ * starts a little below the highest id held, so rows committed out of id order aren't missed.
+ * Once a day the store is rebuilt from the database, dropping expired articles and
+ * unused terms.
+ */
+@Service
+public class DigestWindowStore {
+
+    static final int WINDOW_DAYS = 7;
+
+    @Autowired
+    private ArticleRepository articleRepository;
+
+    @Value("${aggregator.digest.window.refresh-lookback-ids:1000}")
+    private long refreshLookbackIds;
+
+    // --- Article columns, index i is one article ---
+    private long[] ids = new long[0];
+    private int[] publishedDays = new int[0];
+    private short[] sourceIds = new short[0];
+    private int[] termStarts = new int[1]; // terms of article i are termIds[termStarts[i] .. termStarts[i + 1])
+    private int[] termIds = new int[0];
+    private BitSet sent = new BitSet();
+    private int size;
+    private int termCount;
+
+    // --- Dictionaries ---
+    private Map<String, Integer> termIndex = new HashMap<>();
+    private List<String> terms = new ArrayList<>();
+    private Map<String, Short> sourceIndex = new HashMap<>();
+    private List<String> sources = new ArrayList<>();
+
+    // Highest id held, whether loaded from the database or added by our own fetch
+    private long highestId;
+
+    // Compiled keywords, valid until a term is added or the dictionary is rebuilt
+    private final Map<String, KeywordMatcher> matcherCache = new HashMap<>();
+    private int matcherCacheTermCount = -1;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        rebuild();
+    }
+
+    // Daily compaction: drop articles that left the window and terms no longer used
+    @Scheduled(cron = "${aggregator.digest.window.compact-cron:0 30 3 * * ?}")
+    public void rebuild() {
+        try {
+            LocalDate since = LocalDate.now().minusDays(WINDOW_DAYS);
+            List<ArticleRepository.WindowRow> rows =
+                    articleRepository.findByIdGreaterThanAndPublishedDateGreaterThanEqualOrderByIdAsc(0L, since);
+            synchronized (this) {
+                clear();
+                for (ArticleRepository.WindowRow row : rows) {
+                    append(row.getId(), row.getTitle(), row.getPublishedDate(), row.getSource(), row.isSentInDigest());
+                }
+                trimToSize();
+            }
+            System.out.println("LOG: Digest window rebuilt: " + size + " articles, " + terms.size()
+                    + " terms, ~" + estimatedBytes() / 1024 + " KB.");
+        } catch (Exception e) {
+            System.err.println("ERROR rebuilding digest window: " + e.getMessage());
+        }
+    }
+
+    // Pick up articles saved by other instances since the last refresh. Ids are assigned on
+    // insert but become visible on commit, so a lower id can show up after a higher one:
+    // the last refreshLookbackIds ids are queried again, and rows already held are skipped.
+    public void refresh() {
+        try {
+            long after;
+            synchronized (this) {
+                after = Math.max(0, highestId - refreshLookbackIds);
+            }
+            List<ArticleRepository.WindowRow> rows = articleRepository
+                    .findByIdGreaterThanAndPublishedDateGreaterThanEqualOrderByIdAsc(after, LocalDate.now().minusDays(WINDOW_DAYS));
+            synchronized (this) {
+                Set<Long> held = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    if (ids[i] > after) {
+                        held.add(ids[i]);
+                    }
+                }
+                for (ArticleRepository.WindowRow row : rows) {
+                    if (held.add(row.getId())) {
+                        append(row.getId(), row.getTitle(), row.getPublishedDate(), row.getSource(), row.isSentInDigest());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("ERROR refreshing digest window: " + e.getMessage());
+        }
+    }
+
+    // Called by the fetch right after an article was saved
+    public synchronized void add(Article article) {
+        if (article.getId() == null || article.getPublishedDate() == null
+                || article.getPublishedDate().isBefore(LocalDate.now().minusDays(WINDOW_DAYS))) {
+            return;
+        }
+        append(article.getId(), article.getTitle(), article.getPublishedDate(), article.getSource(), article.isSentInDigest());
+    }
+
+    public synchronized void markSent(Collection<Long> articleIds) {
+        Set<Long> wanted = new HashSet<>(articleIds);
+        for (int i = 0; i < size; i++) {
+            if (wanted.contains(ids[i])) {
+                sent.set(i);
+            }
+        }
+    }
+
+    /**
+     * Ids of the articles published on or after {@code since} whose title matches one of the
+     * keywords, and that the user hasn't received yet: id above {@code lastSentArticleId} and
+     * not in {@code alreadySent}, or, for users without any digest so far, not yet sent in any digest.
+     * Matching is the same case-insensitive "title contains keyword" check as before.
+     */
+    public synchronized List<Long> select(Set<String> keywords, LocalDate since, Long lastSentArticleId, Set<Long> alreadySent) {
+        List<KeywordMatcher> matchers = new ArrayList<>();
+        for (String keyword : keywords) {
+            if (keyword == null || keyword.trim().isEmpty()) continue;
+            matchers.add(matcherFor(keyword.trim().toLowerCase()));
+        }
+        List<Long> result = new ArrayList<>();
+        if (matchers.isEmpty()) {
+            return result;
+        }
+        int sinceDay = (int) since.toEpochDay();
+        for (int i = 0; i < size; i++) {
+            if (publishedDays[i] < sinceDay) continue;
+            if (lastSentArticleId == null ? sent.get(i) : ids[i] <= lastSentArticleId || alreadySent.contains(ids[i])) continue;
+            for (KeywordMatcher matcher : matchers) {
+                if (matcher.matches(termIds, termStarts[i], termStarts[i + 1])) {
+                    result.add(ids[i]);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Ids at or below this are taken to be committed: the same lookback refresh() relies on.
+    // A per-user watermark may move up to here; above it, sent articles are tracked one by one.
+    public synchronized long settledId() {
+        return Math.max(0, highestId - refreshLookbackIds);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Bytes held by the article columns plus an estimate for the dictionaries
+    public synchronized long estimatedBytes() {
+        long columns = 8L * ids.length + 4L * publishedDays.length + 2L * sourceIds.length
+                + 4L * termStarts.length + 4L * termIds.length + sent.size() / 8;
+        long dictionary = 0;
+        for (String term : terms) {
+            // String + byte[] contents + HashMap entry + boxed Integer + list slot
+            dictionary += 24 + 16 + term.length() + 32 + 16 + 4;
+        }
+        return columns + dictionary;
+    }
+
+    private void clear() {
+        ids = new long[0];
+        publishedDays = new int[0];
+        sourceIds = new short[0];
+        termStarts = new int[1];
+        termIds = new int[0];
+        sent = new BitSet();
+        size = 0;
+        termCount = 0;
+        termIndex = new HashMap<>();
+        terms = new ArrayList<>();
+        sourceIndex = new HashMap<>();
+        sources = new ArrayList<>();
+        highestId = 0;
+        // Term ids are handed out again from 0, so compiled keywords no longer apply
+        matcherCache.clear();
+        matcherCacheTermCount = -1;
+    }
+
+    private void append(long id, String title, LocalDate publishedDate, String source, boolean alreadySent) {
+        String[] words = title == null ? new String[0] : title.toLowerCase().trim().split("\\s+");
+        if (size == ids.length) {
+            int capacity = Math.max(16, size * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            publishedDays = Arrays.copyOf(publishedDays, capacity);
+            sourceIds = Arrays.copyOf(sourceIds, capacity);
+            termStarts = Arrays.copyOf(termStarts, capacity + 1);
+        }
+        if (termCount + words.length > termIds.length) {
+            termIds = Arrays.copyOf(termIds, Math.max(termCount + words.length, termIds.length * 2));
+        }
+        ids[size] = id;
+        highestId = Math.max(highestId, id);
+        publishedDays[size] = (int) publishedDate.toEpochDay();
+        sourceIds[size] = sourceIdFor(source);
+        for (String word : words) {
+            if (word.isEmpty()) continue;
+            termIds[termCount++] = termIdFor(word);
+        }
+        sent.set(size, alreadySent);
+        size++;
+        termStarts[size] = termCount;
+    }
+
+    private void trimToSize() {
+        ids = Arrays.copyOf(ids, size);
+        publishedDays = Arrays.copyOf(publishedDays, size);
+        sourceIds = Arrays.copyOf(sourceIds, size);
+        termStarts = Arrays.copyOf(termStarts, size + 1);
+        termIds = Arrays.copyOf(termIds, termCount);
+    }
+
+    private int termIdFor(String term) {
+        Integer termId = termIndex.get(term);
+        if (termId == null) {
+            termId = terms.size();
+            terms.add(term);
+            termIndex.put(term, termId);
+        }
+        return termId;
+    }
+
+    private short sourceIdFor(String source) {
+        String key = source != null ? source : "";
+        Short sourceId = sourceIndex.get(key);
+        if (sourceId == null) {
+            sourceId = (short) sources.size();
+            sources.add(key);
+            sourceIndex.put(key, sourceId);
+        }
+        return sourceId;
+    }
+
+    private KeywordMatcher matcherFor(String keyword) {
+        if (matcherCacheTermCount != terms.size()) {
+            matcherCache.clear();
+            matcherCacheTermCount = terms.size();
+        }
+        return matcherCache.computeIfAbsent(keyword, this::compile);
+    }
+
+    // Resolve a keyword against the dictionary once, so matching an article only compares term ids.
+    // A one-word keyword is contained in a title exactly when it is contained in one of its words.
+    // A keyword of several words must span consecutive title words: the first word ends with
+    // the keyword's first word, the middle words are equal, and the last one starts with its last word.
+    private KeywordMatcher compile(String keyword) {
+        String[] parts = keyword.split("\\s+");
+        BitSet[] allowed = new BitSet[parts.length];
+        for (int p = 0; p < parts.length; p++) {
+            allowed[p] = new BitSet(terms.size());
+        }
+        for (int t = 0; t < terms.size(); t++) {
+            String term = terms.get(t);
+            if (parts.length == 1) {
+                if (term.contains(parts[0])) allowed[0].set(t);
+                continue;
+            }
+            if (term.endsWith(parts[0])) allowed[0].set(t);
+            for (int p = 1; p < parts.length - 1; p++) {
+                if (term.equals(parts[p])) allowed[p].set(t);
+            }
+            if (term.startsWith(parts[parts.length - 1])) allowed[parts.length - 1].set(t);
+        }
+        return new KeywordMatcher(allowed);
+    }
+
+    private record KeywordMatcher(BitSet[] allowed) {
+
+        boolean matches(int[] termIds, int from, int to) {
+            for (int start = from; start + allowed.length <= to; start++) {
+                int p = 0;
+                while (p < allowed.length && allowed[p].get(termIds[start + p])) {
+                    p++;
+                }
+                if (p == allowed.length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
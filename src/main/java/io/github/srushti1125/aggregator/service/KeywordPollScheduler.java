@@ -0,0 +1,128 @@
+package io.github.srushti1125.aggregator.service;
+
+import io.github.srushti1125.aggregator.model.KeywordPollState;
+import io.github.srushti1125.aggregator.repository.KeywordPollStateRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntSupplier;
+
+/**
+ * Decides how often each (keyword, source) pair is polled, based on how many new
+ * articles its recent polls actually stored. High-yield pairs are polled more often,
+ * pairs that keep coming back empty back off exponentially, always within the
+ * configured minimum and maximum interval. State lives in the database, so every
+ * instance sees the same schedule.
+ */
+@Service
+public class KeywordPollScheduler {
+
+    // A pair this close to its next poll counts as due, so timer jitter doesn't push it a whole tick out
+    static final Duration DUE_GRACE = Duration.ofMinutes(1);
+
+    @Autowired
+    private KeywordPollStateRepository stateRepository;
+
+    @Value("${aggregator.fetch.min-interval-minutes:15}")
+    private long minIntervalMinutes;
+
+    // New pairs start here; this matches the old fixed hourly fetch
+    @Value("${aggregator.fetch.initial-interval-minutes:60}")
+    private long initialIntervalMinutes;
+
+    @Value("${aggregator.fetch.max-interval-minutes:1440}")
+    private long maxIntervalMinutes;
+
+    // A poll storing at least this many new articles halves the interval
+    @Value("${aggregator.fetch.high-yield-threshold:10}")
+    private int highYieldThreshold;
+
+    // Load the schedule for one fetch run, keyed by keyword and source.
+    // Pairs whose keyword no user has any more are removed.
+    public Map<String, KeywordPollState> loadStates(Set<String> activeKeywords) {
+        Map<String, KeywordPollState> states = new HashMap<>();
+        List<KeywordPollState> stale = new ArrayList<>();
+        for (KeywordPollState state : stateRepository.findAll()) {
+            if (activeKeywords.contains(state.getKeyword())) {
+                states.put(key(state.getKeyword(), state.getSource()), state);
+            } else {
+                stale.add(state);
+            }
+        }
+        if (!stale.isEmpty()) {
+            stateRepository.deleteAll(stale);
+            System.out.println("LOG: Removed poll schedule for " + stale.size() + " unused keyword/source pairs.");
+        }
+        return states;
+    }
+
+    /**
+     * Runs {@code fetch} if the pair is due and records its yield. The fetch returns the
+     * number of new articles it stored, or a negative number if the call failed; a failed
+     * call keeps the current interval instead of counting as an empty poll.
+     * <p>
+     * {@code runStart} is when the fetch run began. Both the due check and the next poll
+     * time are based on it rather than on the clock after earlier fetches of the run, so an
+     * interval that is a multiple of the tick is polled on exactly that tick.
+     */
+    public void pollIfDue(Map<String, KeywordPollState> states, String keyword, String source, Instant runStart, IntSupplier fetch) {
+        KeywordPollState state = states.get(key(keyword, source));
+        if (state != null && !isDue(state, runStart)) {
+            return;
+        }
+        if (state == null) {
+            state = new KeywordPollState();
+            state.setKeyword(keyword);
+            state.setSource(source);
+            state.setIntervalMinutes(initialIntervalMinutes);
+            states.put(key(keyword, source), state);
+        }
+
+        int stored = fetch.getAsInt();
+
+        long interval = stored < 0 ? state.getIntervalMinutes() : nextInterval(state.getIntervalMinutes(), stored);
+        state.setIntervalMinutes(interval);
+        state.setLastPolledAt(Instant.now());
+        state.setNextPollAt(runStart.plusSeconds(interval * 60));
+        if (stored >= 0) {
+            state.setLastYield(stored);
+            state.setTotalYield(state.getTotalYield() + stored);
+        }
+        try {
+            stateRepository.save(state);
+        } catch (Exception e) {
+            System.err.println("ERROR saving poll schedule for '" + keyword + "' on " + source + ": " + e.getMessage());
+        }
+        System.out.println("LOG: " + source + " '" + keyword + "' stored " + stored + " new articles, next poll in " + interval + " min.");
+    }
+
+    static boolean isDue(KeywordPollState state, Instant runStart) {
+        return state.getNextPollAt() == null || !runStart.plus(DUE_GRACE).isBefore(state.getNextPollAt());
+    }
+
+    // Halve on a high yield, keep on a modest one, double when nothing new came in
+    long nextInterval(long currentMinutes, int stored) {
+        long next;
+        if (stored >= highYieldThreshold) {
+            next = currentMinutes / 2;
+        } else if (stored > 0) {
+            next = currentMinutes;
+        } else {
+            next = currentMinutes * 2;
+        }
+        return Math.max(minIntervalMinutes, Math.min(maxIntervalMinutes, next));
+    }
+
+    private static String key(String keyword, String source) {
+        return keyword + "|" + source;
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.srushti1125.aggregator.repository;
+
+import io.github.srushti1125.aggregator.model.Article;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+class ArticleRepositoryTests {
+
+	@Autowired
+	private ArticleRepository articleRepository;
+	@Autowired
+	private TestEntityManager entityManager;
+
+	@Test
+	void markingSentKeepsEnrichmentStoredAfterTheArticleWasLoaded() {
+		Article article = new Article();
+		article.setTitle("Java news");
+		article.setUrl("https://example.com/java");
+		article.setPublishedDate(LocalDate.now());
+		Long id = articleRepository.saveAndFlush(article).getId();
+
+		// Enrichment finishes while a digest is being sent with the entity loaded before
+		articleRepository.updateEnrichment(id, "https://example.com/cover.png", "Summary", null, Instant.now());
+		articleRepository.markSentInDigest(List.of(id));
+		entityManager.clear();
+
+		Article stored = articleRepository.findById(id).orElseThrow();
+		assertThat(stored.isSentInDigest()).isTrue();
+		assertThat(stored.getImageUrl()).isEqualTo("https://example.com/cover.png");
+		assertThat(stored.getSummary()).isEqualTo("Summary");
+	}
+}
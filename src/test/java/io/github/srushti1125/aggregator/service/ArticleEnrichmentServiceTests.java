@@ -0,0 +1,248 @@
+package io.github.srushti1125.aggregator.service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.srushti1125.aggregator.repository.ArticleRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+// Runs the page fetch and metadata extraction against a local HTTP stub
+class ArticleEnrichmentServiceTests {
+
+	private static final String PAGE = """
+			<!DOCTYPE html><html><head>
+			<meta charset="utf-8">
+			<meta property="og:image" content="/img/cover.png">
+			<meta name="description" content="Fast &amp; small: a tour">
+			<link rel="canonical" href="https://example.com/posts/42">
+			</head><body><meta property="og:image" content="/ignored.png"></body></html>
+			""";
+
+	private HttpServer server;
+	private String baseUrl;
+	private final AtomicInteger pageRequests = new AtomicInteger();
+	private final AtomicInteger busyRequests = new AtomicInteger();
+	private ArticleEnrichmentService service;
+
+	@BeforeEach
+	void startStub() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/post", exchange -> {
+			pageRequests.incrementAndGet();
+			byte[] body = PAGE.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.createContext("/redirect", exchange -> {
+			exchange.getResponseHeaders().add("Location", "/post");
+			exchange.sendResponseHeaders(302, -1);
+			exchange.close();
+		});
+		// Moves to another host name for the same stub, like http://example.com -> https://www.example.com
+		server.createContext("/moved", exchange -> {
+			exchange.getResponseHeaders().add("Location",
+					"http://localhost:" + server.getAddress().getPort() + "/publisher");
+			exchange.sendResponseHeaders(301, -1);
+			exchange.close();
+		});
+		server.createContext("/publisher", exchange -> {
+			byte[] body = "<html><head><link rel=\"canonical\" href=\"/posts/7\"></head></html>".getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "text/html");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.createContext("/busy", exchange -> {
+			busyRequests.incrementAndGet();
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+		});
+		server.createContext("/missing", exchange -> {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+		});
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		service = new ArticleEnrichmentService();
+		ReflectionTestUtils.setField(service, "cacheSize", 100);
+		ReflectionTestUtils.setField(service, "perDomainIntervalMs", 0L);
+		ReflectionTestUtils.setField(service, "maxDomainWaitMs", 1000L);
+		ReflectionTestUtils.setField(service, "maxAttempts", 3);
+		ReflectionTestUtils.setField(service, "retryBaseMs", 60_000L);
+		// The stub listens on loopback
+		ReflectionTestUtils.setField(service, "allowPrivateAddresses", true);
+	}
+
+	@AfterEach
+	void stopStub() {
+		server.stop(0);
+	}
+
+	@Test
+	void extractsImageDescriptionAndCanonicalUrlFromHead() throws Exception {
+		ArticleEnrichmentService.PageMetadata metadata = service.metadataFor(baseUrl + "/post");
+
+		assertThat(metadata.imageUrl()).isEqualTo(baseUrl + "/img/cover.png");
+		assertThat(metadata.description()).isEqualTo("Fast & small: a tour");
+		assertThat(metadata.canonicalUrl()).isEqualTo("https://example.com/posts/42");
+	}
+
+	@Test
+	void fetchesEachPageOnlyOnce() throws Exception {
+		service.metadataFor(baseUrl + "/post");
+		service.metadataFor(baseUrl + "/post");
+
+		assertThat(pageRequests.get()).isEqualTo(1);
+	}
+
+	@Test
+	void followsRedirectsAndResolvesAgainstTheFinalPage() throws Exception {
+		ArticleEnrichmentService.PageMetadata metadata = service.metadataFor(baseUrl + "/redirect");
+
+		assertThat(metadata.imageUrl()).isEqualTo(baseUrl + "/img/cover.png");
+		assertThat(pageRequests.get()).isEqualTo(1);
+	}
+
+	@Test
+	void canonicalUrlIsCheckedAgainstThePageReachedAfterRedirects() throws Exception {
+		ArticleRepository articleRepository = mock(ArticleRepository.class);
+		ReflectionTestUtils.setField(service, "articleRepository", articleRepository);
+		ReflectionTestUtils.setField(service, "workers", 1);
+		ReflectionTestUtils.setField(service, "queueCapacity", 10);
+		service.start();
+		try {
+			// The article URL is on 127.0.0.1, the page and its canonical URL on localhost
+			service.submit(1L, baseUrl + "/moved");
+			// The canonical URL of this page is on example.com, not on the page's host
+			service.submit(2L, baseUrl + "/post");
+
+			String publisherBase = "http://localhost:" + server.getAddress().getPort();
+			verify(articleRepository, timeout(5000))
+					.updateEnrichment(eq(1L), isNull(), isNull(), eq(publisherBase + "/posts/7"), any(Instant.class));
+			verify(articleRepository, timeout(5000))
+					.updateEnrichment(eq(2L), eq(baseUrl + "/img/cover.png"), eq("Fast & small: a tour"), isNull(), any(Instant.class));
+		} finally {
+			service.stop();
+		}
+	}
+
+	@Test
+	void unwrapsGoogleNewsLinksToThePublisherUrl() {
+		String publisher = "https://timesofindia.indiatimes.com/india/story/articleshow/1.cms";
+		ByteArrayOutputStream id = new ByteArrayOutputStream();
+		id.writeBytes(new byte[] {0x08, 0x13, 0x22, (byte) publisher.length()});
+		id.writeBytes(publisher.getBytes(StandardCharsets.US_ASCII));
+		id.writeBytes(new byte[] {(byte) 0xd2, 0x01, 0x00});
+		String encoded = Base64.getUrlEncoder().withoutPadding().encodeToString(id.toByteArray());
+
+		assertThat(ArticleEnrichmentService.publisherUrl("https://news.google.com/rss/articles/" + encoded + "?oc=5"))
+				.isEqualTo(publisher);
+		// Newer ids are opaque: the page is skipped rather than reading Google's wrapper
+		assertThat(ArticleEnrichmentService.publisherUrl("https://news.google.com/rss/articles/AU_yqLOpaqueId?oc=5")).isNull();
+		assertThat(ArticleEnrichmentService.publisherUrl("https://example.com/a")).isEqualTo("https://example.com/a");
+	}
+
+	@Test
+	void neverFetchesPrivateAddressesByDefault() throws Exception {
+		ReflectionTestUtils.setField(service, "allowPrivateAddresses", false);
+
+		assertThat(service.metadataFor(baseUrl + "/post")).isEqualTo(ArticleEnrichmentService.EMPTY);
+		assertThat(pageRequests.get()).isZero();
+		for (String address : new String[] {"127.0.0.1", "::1", "10.1.2.3", "172.16.0.1", "192.168.1.1",
+				"169.254.169.254", "fe80::1", "fd00::1", "0.0.0.0"}) {
+			assertThat(ArticleEnrichmentService.isPrivate(InetAddress.getByName(address))).as(address).isTrue();
+		}
+		assertThat(ArticleEnrichmentService.isPrivate(InetAddress.getByName("93.184.216.34"))).isFalse();
+		assertThat(ArticleEnrichmentService.isPrivate(InetAddress.getByName("2606:4700::1111"))).isFalse();
+	}
+
+	@Test
+	void failedPagesCountAsPagesWithoutMetadata() throws Exception {
+		assertThat(service.metadataFor(baseUrl + "/missing")).isEqualTo(ArticleEnrichmentService.EMPTY);
+	}
+
+	@Test
+	void temporaryFailuresAreNotCachedSoTheyCanBeRetried() throws Exception {
+		assertThat(service.metadataFor(baseUrl + "/busy")).isNull();
+		assertThat(service.metadataFor(baseUrl + "/busy")).isNull();
+		assertThat(busyRequests.get()).isEqualTo(2);
+
+		// Nothing listens on the port any more: connection refused
+		server.stop(0);
+		assertThat(service.metadataFor(baseUrl + "/post")).isNull();
+	}
+
+	@Test
+	void onlyPagesThatAnsweredAreMarkedEnriched() throws Exception {
+		ArticleRepository articleRepository = mock(ArticleRepository.class);
+		ReflectionTestUtils.setField(service, "articleRepository", articleRepository);
+		ReflectionTestUtils.setField(service, "workers", 1);
+		ReflectionTestUtils.setField(service, "queueCapacity", 10);
+		service.start();
+		try {
+			service.submit(1L, baseUrl + "/busy");
+			service.submit(2L, baseUrl + "/missing");
+
+			verify(articleRepository, timeout(5000)).updateEnrichment(eq(2L), isNull(), isNull(), isNull(), any(Instant.class));
+			verify(articleRepository, never()).updateEnrichment(eq(1L), any(), any(), any(), any());
+			// The failed page is held back from the sweep for a while
+			verify(articleRepository).updateEnrichmentRetry(eq(1L), eq(1),
+					argThat(nextAttempt -> nextAttempt.isAfter(Instant.now().plusSeconds(50))));
+		} finally {
+			service.stop();
+		}
+	}
+
+	@Test
+	void givesUpOnAPageAfterTheLastAttempt() throws Exception {
+		ArticleRepository articleRepository = mock(ArticleRepository.class);
+		ReflectionTestUtils.setField(service, "articleRepository", articleRepository);
+		ReflectionTestUtils.setField(service, "workers", 1);
+		ReflectionTestUtils.setField(service, "queueCapacity", 10);
+		service.start();
+		try {
+			// Two failures so far; the third is the last one allowed
+			service.submit(1L, baseUrl + "/busy", 2);
+
+			verify(articleRepository, timeout(5000)).updateEnrichment(eq(1L), isNull(), isNull(), isNull(), any(Instant.class));
+			verify(articleRepository, never()).updateEnrichmentRetry(any(), anyInt(), any());
+		} finally {
+			service.stop();
+		}
+	}
+
+	@Test
+	void backsOffWhenTheDomainIsBookedTooFarAhead() throws Exception {
+		ReflectionTestUtils.setField(service, "perDomainIntervalMs", 60_000L);
+
+		assertThat(service.metadataFor(baseUrl + "/post")).isNotNull();
+		// The next request to the same host would have to wait a minute: left for the sweep
+		assertThat(service.metadataFor(baseUrl + "/missing")).isNull();
+	}
+}
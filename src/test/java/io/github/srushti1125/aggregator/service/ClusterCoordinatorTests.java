@@ -0,0 +1,128 @@
+package io.github.srushti1125.aggregator.service;
+
+import io.github.srushti1125.aggregator.AggregatorApplication;
+import io.github.srushti1125.aggregator.model.InstanceLease;
+import io.github.srushti1125.aggregator.model.User;
+import io.github.srushti1125.aggregator.repository.InstanceLeaseRepository;
+import io.github.srushti1125.aggregator.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Starts two application contexts against one shared in-memory H2 database,
+// the same way two instances would share one database in production.
+class ClusterCoordinatorTests {
+
+	private static ConfigurableApplicationContext startInstance(String instanceId, String... extraProperties) {
+		return new SpringApplicationBuilder(AggregatorApplication.class)
+				.properties(extraProperties)
+				.properties(
+						"server.port=0",
+						"spring.datasource.url=jdbc:h2:mem:cluster-test;DB_CLOSE_DELAY=-1",
+						"spring.jpa.hibernate.ddl-auto=update",
+						"spring.mail.host=localhost",
+						"spring.mail.username=digest@example.com",
+						"newsapi.key=test",
+						"aggregator.cluster.instance-id=" + instanceId)
+				.run();
+	}
+
+	@Test
+	void instancesSplitWorkAndTakeOverWhenOneLeaves() {
+		ConfigurableApplicationContext nodeA = startInstance("node-a");
+		ConfigurableApplicationContext nodeB = startInstance("node-b");
+		try {
+			ClusterCoordinator a = nodeA.getBean(ClusterCoordinator.class);
+			ClusterCoordinator b = nodeB.getBean(ClusterCoordinator.class);
+			assertThat(a.liveInstances()).containsExactly("node-a", "node-b");
+			assertThat(b.liveInstances()).containsExactly("node-a", "node-b");
+
+			// Every key has exactly one owner, and the keys are spread roughly evenly
+			Predicate<String> ownedByA = a.ownershipSnapshot();
+			Predicate<String> ownedByB = b.ownershipSnapshot();
+			int ownedByACount = 0;
+			for (int i = 0; i < 1000; i++) {
+				String key = "user:" + i;
+				assertThat(ownedByA.test(key)).isNotEqualTo(ownedByB.test(key));
+				if (ownedByA.test(key)) {
+					ownedByACount++;
+				}
+			}
+			assertThat(ownedByACount).isBetween(400, 600);
+
+			// When node B shuts down, node A owns everything
+			nodeB.close();
+			assertThat(a.liveInstances()).containsExactly("node-a");
+			Predicate<String> afterFailover = a.ownershipSnapshot();
+			for (int i = 0; i < 1000; i++) {
+				assertThat(afterFailover.test("user:" + i)).isTrue();
+			}
+		} finally {
+			nodeB.close();
+			nodeA.close();
+		}
+	}
+
+	@Test
+	void busySchedulerDoesNotExpireTheLease() throws Exception {
+		ConfigurableApplicationContext node = startInstance("busy-node",
+				"aggregator.cluster.heartbeat-ms=200", "aggregator.cluster.lease-ttl-ms=1000");
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			// Block Spring's scheduler thread the way a long fetchContent run does
+			CountDownLatch blocked = new CountDownLatch(1);
+			node.getBean(TaskScheduler.class).schedule(() -> {
+				blocked.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}, Instant.now());
+			assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+			// Three lease TTLs later the lease must still be fresh
+			Thread.sleep(3000);
+			InstanceLease lease = node.getBean(InstanceLeaseRepository.class).findById("busy-node").orElseThrow();
+			assertThat(lease.getHeartbeatAt()).isAfter(Instant.now().minusMillis(1000));
+		} finally {
+			release.countDown();
+			node.close();
+		}
+	}
+
+	@Test
+	void onlyOneInstanceCanClaimAUsersDigest() {
+		ConfigurableApplicationContext nodeA = startInstance("claim-a");
+		ConfigurableApplicationContext nodeB = startInstance("claim-b");
+		try {
+			UserRepository usersOnA = nodeA.getBean(UserRepository.class);
+			UserRepository usersOnB = nodeB.getBean(UserRepository.class);
+
+			User user = new User();
+			user.setEmail("claim@example.com");
+			user.setPassword("secret");
+			Long userId = usersOnA.save(user).getId();
+
+			LocalDate today = LocalDate.now();
+			assertThat(usersOnA.claimDigest(userId, today)).isEqualTo(1);
+			assertThat(usersOnB.claimDigest(userId, today)).isEqualTo(0);
+
+			// A released claim (failed send) can be taken again
+			assertThat(usersOnA.releaseDigest(userId, today)).isEqualTo(1);
+			assertThat(usersOnB.claimDigest(userId, today)).isEqualTo(1);
+		} finally {
+			nodeB.close();
+			nodeA.close();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package io.github.srushti1125.aggregator.service;
+
+import io.github.srushti1125.aggregator.model.Article;
+import io.github.srushti1125.aggregator.model.SentArticle;
+import io.github.srushti1125.aggregator.model.User;
+import io.github.srushti1125.aggregator.repository.SentArticleRepository;
+import io.github.srushti1125.aggregator.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class DigestServiceTests {
+
+	private DigestService service;
+
+	@BeforeEach
+	void setUp() {
+		service = new DigestService();
+		ReflectionTestUtils.setField(service, "defaultDigestTime", "08:00");
+		ReflectionTestUtils.setField(service, "defaultZone", "UTC");
+		ReflectionTestUtils.setField(service, "spreadMinutes", 60L);
+	}
+
+	// A user at 23:30 whose per-user offset pushes the slot past midnight
+	private User lateUserWrappingPastMidnight(LocalDate day) {
+		for (long id = 1; id < 1000; id++) {
+			User user = new User();
+			user.setId(id);
+			user.setDigestTime(LocalTime.of(23, 30));
+			if (service.slotFor(user, day).toLocalDate().isAfter(day)) {
+				return user;
+			}
+		}
+		throw new IllegalStateException("no user id with an offset over 30 minutes");
+	}
+
+	@Test
+	void slotPastLocalMidnightIsDueAndClaimedForItsOwnDay() {
+		LocalDate day = LocalDate.of(2026, 3, 10);
+		User user = lateUserWrappingPastMidnight(day);
+		ZonedDateTime slot = service.slotFor(user, day);
+
+		// Just before the slot (already the next calendar day): not due yet
+		assertThat(service.dueSlot(user, slot.toInstant().minusSeconds(1))).isNull();
+
+		// At the slot: due, and it belongs to the day it was scheduled for
+		DigestService.DueSlot due = service.dueSlot(user, slot.toInstant());
+		assertThat(due).isNotNull();
+		assertThat(due.day()).isEqualTo(day);
+		assertThat(due.at()).isEqualTo(slot);
+
+		// Once that day is processed, nothing is due until the next day's slot
+		user.setLastDigestSentOn(day);
+		assertThat(service.dueSlot(user, slot.toInstant().plusSeconds(60))).isNull();
+		ZonedDateTime nextSlot = service.slotFor(user, day.plusDays(1));
+		assertThat(service.dueSlot(user, nextSlot.toInstant()).day()).isEqualTo(day.plusDays(1));
+	}
+
+	@Test
+	void nextSlotIsTheFirstOneStrictlyAfterNow() {
+		LocalDate day = LocalDate.of(2026, 3, 10);
+		User user = lateUserWrappingPastMidnight(day);
+		ZonedDateTime slot = service.slotFor(user, day);
+
+		assertThat(service.nextSlotAfter(user, slot.toInstant().minusSeconds(1))).isEqualTo(slot.toInstant());
+		assertThat(service.nextSlotAfter(user, slot.toInstant()))
+				.isEqualTo(service.slotFor(user, day.plusDays(1)).toInstant());
+	}
+
+	@Test
+	void slotIsPreferredTimePlusOffsetWithinTheSpread() {
+		User user = new User();
+		user.setId(42L);
+		LocalDate day = LocalDate.of(2026, 3, 10);
+
+		ZonedDateTime slot = service.slotFor(user, day);
+		assertThat(slot.toLocalDateTime()).isBetween(day.atTime(8, 0), day.atTime(9, 0));
+		assertThat(service.dueSlot(user, slot.toInstant()).day()).isEqualTo(day);
+	}
+
+	@Test
+	void canonicalUrlIsOnlyUsedOnTheArticlesOwnHost() {
+		Article article = new Article();
+		article.setUrl("https://Example.com/p/42?utm_source=feed");
+
+		article.setCanonicalUrl("https://example.com/posts/42");
+		assertThat(DigestService.linkFor(article)).isEqualTo("https://example.com/posts/42");
+
+		article.setCanonicalUrl("https://elsewhere.example.net/posts/42");
+		assertThat(DigestService.linkFor(article)).isEqualTo("https://Example.com/p/42?utm_source=feed");
+
+		article.setCanonicalUrl(null);
+		assertThat(DigestService.linkFor(article)).isEqualTo("https://Example.com/p/42?utm_source=feed");
+	}
+
+	@Test
+	void watermarkOnlyMovesUpToSettledIdsAndTheRestIsRecordedPerArticle() {
+		UserRepository userRepository = mock(UserRepository.class);
+		SentArticleRepository sentArticleRepository = mock(SentArticleRepository.class);
+		ReflectionTestUtils.setField(service, "userRepository", userRepository);
+		ReflectionTestUtils.setField(service, "sentArticleRepository", sentArticleRepository);
+		User user = new User();
+		user.setId(7L);
+		user.setLastDigestArticleId(40L);
+
+		// Ids above 90 may still have uncommitted neighbours below them
+		service.recordSent(user, List.of(articleWithId(95L), articleWithId(100L)), 90L);
+
+		verify(userRepository).updateDigestWatermark(7L, 90L);
+		ArgumentCaptor<List<SentArticle>> rows = ArgumentCaptor.forClass(List.class);
+		verify(sentArticleRepository).saveAll(rows.capture());
+		assertThat(rows.getValue()).extracting(SentArticle::getArticleId).containsExactly(95L, 100L);
+		assertThat(rows.getValue()).extracting(SentArticle::getUserId).containsOnly(7L);
+	}
+
+	private static Article articleWithId(long id) {
+		Article article = new Article();
+		article.setId(id);
+		return article;
+	}
+}
@@ -0,0 +1,174 @@
+package io.github.srushti1125.aggregator.service;
+
+import io.github.srushti1125.aggregator.model.Article;
+import io.github.srushti1125.aggregator.repository.ArticleRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.withinPercentage;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DigestWindowStoreTests {
+
+	private record Row(Long getId, String getTitle, LocalDate getPublishedDate, String getSource,
+			boolean isSentInDigest) implements ArticleRepository.WindowRow {
+	}
+
+	private static Row row(long id, String title) {
+		return new Row(id, title, LocalDate.now(), "Hacker News", false);
+	}
+
+	private static Article article(long id, String title, LocalDate publishedDate, boolean sent) {
+		Article article = new Article();
+		article.setId(id);
+		article.setTitle(title);
+		article.setPublishedDate(publishedDate);
+		article.setSource("Hacker News");
+		article.setSentInDigest(sent);
+		return article;
+	}
+
+	@Test
+	void matchesLikeCaseInsensitiveTitleContains() {
+		DigestWindowStore store = new DigestWindowStore();
+		LocalDate today = LocalDate.now();
+		store.add(article(1, "Why JavaScript bundlers are slow", today, false));
+		store.add(article(2, "Kubernetes operators in Java", today, false));
+		store.add(article(3, "A gentle intro to Machine Learning", today, false));
+		store.add(article(4, "Rust for embedded", today, false));
+
+		LocalDate since = today.minusDays(7);
+		assertThat(store.select(Set.of("java"), since, null, Set.of())).containsExactlyInAnyOrder(1L, 2L);
+		assertThat(store.select(Set.of("  KUBER "), since, null, Set.of())).containsExactly(2L);
+		assertThat(store.select(Set.of("machine learning"), since, null, Set.of())).containsExactly(3L);
+		assertThat(store.select(Set.of("ne learn"), since, null, Set.of())).containsExactly(3L);
+		assertThat(store.select(Set.of("learning machine"), since, null, Set.of())).isEmpty();
+		assertThat(store.select(Set.of("go", ""), since, null, Set.of())).isEmpty();
+	}
+
+	@Test
+	void skipsArticlesTheUserAlreadyGotAndOldOnes() {
+		DigestWindowStore store = new DigestWindowStore();
+		LocalDate today = LocalDate.now();
+		store.add(article(1, "Java 21 released", today, true));
+		store.add(article(2, "Java records explained", today, false));
+		store.add(article(3, "Java from last month", today.minusDays(30), false));
+		store.add(article(4, "Java performance tips", today.minusDays(3), false));
+
+		LocalDate since = today.minusDays(7);
+		// No per-user history yet: everything not sent in any digest
+		assertThat(store.select(Set.of("java"), since, null, Set.of())).containsExactly(2L, 4L);
+		// With a watermark: everything newer than the last article the user got
+		assertThat(store.select(Set.of("java"), since, 2L, Set.of())).containsExactly(4L);
+
+		store.markSent(List.of(4L));
+		assertThat(store.select(Set.of("java"), since, null, Set.of())).containsExactly(2L);
+		assertThat(store.size()).isEqualTo(3);
+	}
+
+	@Test
+	void articlesAboveTheWatermarkAreSkippedOnlyIfTheUserGotThem() {
+		DigestWindowStore store = new DigestWindowStore();
+		LocalDate today = LocalDate.now();
+		for (long id = 1; id <= 6; id++) {
+			store.add(article(id, "Java part " + id, today, false));
+		}
+
+		// Watermark at 2; 4 and 5 went out already, 3 committed after them and is still new to the user
+		assertThat(store.select(Set.of("java"), today.minusDays(7), 2L, Set.of(4L, 5L)))
+				.containsExactly(3L, 6L);
+	}
+
+	@Test
+	void refreshPicksUpRowsCommittedOutOfIdOrder() {
+		ArticleRepository repository = mock(ArticleRepository.class);
+		DigestWindowStore store = new DigestWindowStore();
+		ReflectionTestUtils.setField(store, "articleRepository", repository);
+		ReflectionTestUtils.setField(store, "refreshLookbackIds", 3L);
+
+		// Id 3 was taken by a transaction that hadn't committed yet when the store loaded
+		when(repository.findByIdGreaterThanAndPublishedDateGreaterThanEqualOrderByIdAsc(eq(0L), any()))
+				.thenReturn(List.of(row(1, "Java one"), row(2, "Java two"), row(4, "Java four")));
+		store.rebuild();
+		store.add(article(5, "Java five", LocalDate.now(), false));
+
+		// The next refresh goes back from id 5 and sees 3 now, along with rows already held
+		when(repository.findByIdGreaterThanAndPublishedDateGreaterThanEqualOrderByIdAsc(eq(2L), any()))
+				.thenReturn(List.of(row(3, "Java three"), row(4, "Java four"), row(5, "Java five"), row(6, "Java six")));
+		store.refresh();
+
+		assertThat(store.select(Set.of("java"), LocalDate.now().minusDays(7), null, Set.of()))
+				.containsExactlyInAnyOrder(1L, 2L, 3L, 4L, 5L, 6L);
+		assertThat(store.size()).isEqualTo(6);
+	}
+
+	@Test
+	void rebuildDropsKeywordsCompiledAgainstTheOldDictionary() {
+		ArticleRepository repository = mock(ArticleRepository.class);
+		DigestWindowStore store = new DigestWindowStore();
+		ReflectionTestUtils.setField(store, "articleRepository", repository);
+		LocalDate since = LocalDate.now().minusDays(7);
+
+		when(repository.findByIdGreaterThanAndPublishedDateGreaterThanEqualOrderByIdAsc(eq(0L), any()))
+				.thenReturn(List.of(row(1, "Java news")));
+		store.rebuild();
+		assertThat(store.select(Set.of("java"), since, null, Set.of())).containsExactly(1L);
+
+		// Same number of terms after compaction, but term 0 is now "rust"
+		when(repository.findByIdGreaterThanAndPublishedDateGreaterThanEqualOrderByIdAsc(eq(0L), any()))
+				.thenReturn(List.of(row(2, "Rust weekly")));
+		store.rebuild();
+		assertThat(store.select(Set.of("java"), since, null, Set.of())).isEmpty();
+		assertThat(store.select(Set.of("rust"), since, null, Set.of())).containsExactly(2L);
+	}
+
+	// Size of the store for 100k articles with 10-word titles over a 20k-word vocabulary,
+	// measured as the retained heap and compared with estimatedBytes()
+	@Test
+	void footprintOf100kArticles() {
+		int articles = 100_000;
+		Random random = new Random(42);
+		List<ArticleRepository.WindowRow> rows = new ArrayList<>(articles);
+		for (int i = 1; i <= articles; i++) {
+			StringBuilder title = new StringBuilder();
+			for (int w = 0; w < 10; w++) {
+				title.append(w == 0 ? "" : " ").append("word").append(random.nextInt(20_000));
+			}
+			rows.add(new Row((long) i, title.toString(), LocalDate.now(), "Source " + (i % 5), false));
+		}
+		ArticleRepository repository = mock(ArticleRepository.class);
+		when(repository.findByIdGreaterThanAndPublishedDateGreaterThanEqualOrderByIdAsc(eq(0L), any()))
+				.thenAnswer(invocation -> new ArrayList<>(rows));
+
+		long before = usedHeap();
+		DigestWindowStore store = new DigestWindowStore();
+		ReflectionTestUtils.setField(store, "articleRepository", repository);
+		store.rebuild();
+		long retained = usedHeap() - before;
+
+		long estimated = store.estimatedBytes();
+		System.out.println("Digest window footprint: " + retained / articles + " B/article retained, "
+				+ estimated / articles + " B/article estimated");
+		assertThat(store.size()).isEqualTo(articles);
+		assertThat(retained / articles).isLessThan(100);
+		assertThat(estimated).isCloseTo(retained, withinPercentage(25));
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,73 @@
+package io.github.srushti1125.aggregator.service;
+
+import io.github.srushti1125.aggregator.model.KeywordPollState;
+import io.github.srushti1125.aggregator.repository.KeywordPollStateRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class KeywordPollSchedulerTests {
+
+	private KeywordPollScheduler scheduler;
+
+	@BeforeEach
+	void setUp() {
+		scheduler = new KeywordPollScheduler();
+		ReflectionTestUtils.setField(scheduler, "stateRepository", mock(KeywordPollStateRepository.class));
+		ReflectionTestUtils.setField(scheduler, "minIntervalMinutes", 15L);
+		ReflectionTestUtils.setField(scheduler, "initialIntervalMinutes", 60L);
+		ReflectionTestUtils.setField(scheduler, "maxIntervalMinutes", 1440L);
+		ReflectionTestUtils.setField(scheduler, "highYieldThreshold", 10);
+	}
+
+	@Test
+	void intervalHalvesKeepsOrDoublesWithinBounds() {
+		assertThat(scheduler.nextInterval(60, 10)).isEqualTo(30);
+		assertThat(scheduler.nextInterval(60, 3)).isEqualTo(60);
+		assertThat(scheduler.nextInterval(60, 0)).isEqualTo(120);
+		assertThat(scheduler.nextInterval(15, 50)).isEqualTo(15);
+		assertThat(scheduler.nextInterval(1440, 0)).isEqualTo(1440);
+	}
+
+	@Test
+	void hourlyPairIsPolledEveryFourthQuarterHourTick() {
+		Map<String, KeywordPollState> states = new HashMap<>();
+		Instant start = Instant.parse("2026-03-10T08:00:00Z");
+		List<Integer> polledTicks = new ArrayList<>();
+
+		for (int tick = 0; tick <= 8; tick++) {
+			// Runs start a little late or, once, a second early; earlier pairs take a while to fetch
+			long jitterSeconds = tick == 4 ? -1 : tick * 7 % 20;
+			Instant runStart = start.plus(Duration.ofMinutes(15L * tick)).plusSeconds(jitterSeconds);
+			int current = tick;
+			scheduler.pollIfDue(states, "java", "Reddit", runStart, () -> {
+				polledTicks.add(current);
+				return 3;
+			});
+		}
+
+		assertThat(polledTicks).containsExactly(0, 4, 8);
+		assertThat(states.get("java|Reddit").getIntervalMinutes()).isEqualTo(60);
+	}
+
+	@Test
+	void pairIsDueWithinTheGraceBeforeItsNextPoll() {
+		KeywordPollState state = new KeywordPollState();
+		Instant nextPoll = Instant.parse("2026-03-10T09:00:00Z");
+		state.setNextPollAt(nextPoll);
+
+		assertThat(KeywordPollScheduler.isDue(state, nextPoll.minusSeconds(30))).isTrue();
+		assertThat(KeywordPollScheduler.isDue(state, nextPoll.minus(KeywordPollScheduler.DUE_GRACE))).isTrue();
+		assertThat(KeywordPollScheduler.isDue(state, nextPoll.minusSeconds(5 * 60))).isFalse();
+	}
+}